@@ -0,0 +1,149 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A background reader that fills the next buffers of a sequential
+ * read while the current one is consumed. Buffers cycle between a
+ * free queue and a filled queue, so at most depth buffers exist.
+ * Reads are positional and never move the channel position.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class AsyncReader implements Runnable {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private FileChannel channel;
+    private long position;
+    private long limit;
+    private BlockingQueue<ByteBuffer> free;
+    private BlockingQueue<ByteBuffer> filled;
+    private Thread thread;
+    private volatile boolean stopped;
+    private volatile Exception error;
+    private boolean done;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Start reading in the background
+     * @param channel
+     *        channel to read
+     * @param start
+     *        position of the first byte to read
+     * @param limit
+     *        position where reading stops
+     * @param bufferSize
+     *        size of each buffer, a whole number of records
+     * @param depth
+     *        number of buffers, including the one being consumed
+     */
+    AsyncReader(FileChannel channel, long start, long limit,
+        int bufferSize, int depth) {
+        this.channel = channel;
+        this.position = start;
+        this.limit = limit;
+        this.free = new ArrayBlockingQueue<>(depth);
+        this.filled = new ArrayBlockingQueue<>(depth);
+        for (int i = 0; i < depth; i++) {
+            free.add(ByteBuffer.allocate(bufferSize));
+        }
+        thread = new Thread(this, "byte-file-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Hand back a consumed buffer and take the next filled one
+     * @param consumed
+     *        buffer returned to the pool, null if there is none
+     * @return
+     *        the next buffer ready to read, null at the end of input
+     * @throws Exception
+     *         Exception (mostly IOException) raised by the reader
+     */
+    public ByteBuffer next(ByteBuffer consumed) throws Exception {
+        if (consumed != null) {
+            free.put(consumed);
+        }
+        if (done) {
+            return null;
+        }
+        ByteBuffer buffer = filled.take();
+        if (error != null) {
+            throw error;
+        }
+        if (buffer.remaining() < Record.BYTES) {
+            // an empty buffer marks the end of input
+            done = true;
+            free.put(buffer);
+            return null;
+        }
+        return buffer;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Stop the reader and wait for its thread to finish
+     * @throws Exception
+     *         Exception (mostly InterruptedException)
+     */
+    public void close() throws Exception {
+        stopped = true;
+        // unblock the reader if it waits for a free buffer
+        ByteBuffer buffer;
+        while (thread.isAlive()) {
+            while ((buffer = filled.poll()) != null) {
+                free.offer(buffer);
+            }
+            thread.join(10);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Read loop of the background thread
+     */
+    @Override
+    public void run() {
+        try {
+            while (!stopped) {
+                ByteBuffer buffer = free.take();
+                if (stopped) {
+                    break;
+                }
+                buffer.clear();
+                long left = limit - position;
+                if (left < buffer.capacity()) {
+                    buffer.limit((int) Math.max(0, left));
+                }
+                // fill the buffer completely so records never span two
+                while (buffer.hasRemaining()) {
+                    int bytesRead = channel.read(buffer, position);
+                    if (bytesRead == -1) {
+                        break;
+                    }
+                    position += bytesRead;
+                }
+                buffer.flip();
+                // decide before handing the buffer to the consumer
+                boolean end = buffer.remaining() < Record.BYTES;
+                filled.put(buffer);
+                if (end) {
+                    break;
+                }
+            }
+        }
+        catch (Exception e) {
+            error = e;
+            filled.offer(ByteBuffer.allocate(0));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A background writer that drains full buffers while the next one
+ * is filled. Buffers cycle between a pending queue and a free queue,
+ * so at most depth buffers exist. Writes are positional and start at
+ * the position given when the writer is created.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class AsyncWriter implements Runnable {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private static final ByteBuffer POISON = ByteBuffer.allocate(0);
+
+    private FileChannel channel;
+    private long position;
+    private long endPosition;
+    private BlockingQueue<ByteBuffer> free;
+    private BlockingQueue<ByteBuffer> pending;
+    private Thread thread;
+    private volatile Exception error;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Start writing in the background
+     * @param channel
+     *        channel to write
+     * @param start
+     *        position of the first byte to write
+     * @param bufferSize
+     *        size of each buffer
+     * @param depth
+     *        number of buffers, including the one being filled
+     */
+    AsyncWriter(FileChannel channel, long start, int bufferSize,
+        int depth) {
+        this.channel = channel;
+        this.position = start;
+        this.endPosition = start;
+        this.free = new ArrayBlockingQueue<>(depth);
+        this.pending = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 1; i < depth; i++) {
+            free.add(ByteBuffer.allocate(bufferSize));
+        }
+        thread = new Thread(this, "byte-file-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Queue a full buffer and take an empty one to fill next
+     * @param full
+     *        flipped buffer to write
+     * @return
+     *        a cleared buffer
+     * @throws Exception
+     *         Exception (mostly IOException) raised by the writer
+     */
+    public ByteBuffer write(ByteBuffer full) throws Exception {
+        if (error != null) {
+            throw error;
+        }
+        endPosition += full.remaining();
+        pending.put(full);
+        ByteBuffer buffer = free.take();
+        buffer.clear();
+        return buffer;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Position right after the last byte queued
+     * @return
+     *         end position of the written data
+     */
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Wait until every queued buffer is written and stop the writer
+     * @throws Exception
+     *         Exception (mostly IOException) raised by the writer
+     */
+    public void close() throws Exception {
+        pending.put(POISON);
+        thread.join();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Write loop of the background thread
+     */
+    @Override
+    public void run() {
+        try {
+            ByteBuffer buffer;
+            while ((buffer = pending.take()) != POISON) {
+                try {
+                    while (error == null && buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                }
+                catch (Exception e) {
+                    // keep cycling buffers so the producer never blocks
+                    error = e;
+                }
+                free.put(buffer);
+            }
+        }
+        catch (InterruptedException e) {
+            error = e;
+        }
+    }
+}
@@ -1,22 +1,48 @@
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * The class is design to process the byte file by 
  * creating a file processor object and assign a read/write mode
+ * 
+ * In async mode (enableAsync) sequential reads are prefetched by an
+ * AsyncReader and flushed buffers are written by an AsyncWriter, so
+ * disk I/O overlaps with the work done on the current buffer
+ * 
+ * Reads, writes and seeks are counted in a SortStats, one count per
+ * buffer, see setStats()
  *
  * @author Guann-Luen Chen
  * @version 2024.11.04
  */
-public class ByteFileProcessor {
+public class ByteFileProcessor implements RecordReader, RecordWriter {
     // ~ Fields.....................................................
     //
     // ----------------------------------------------------------
+    /**
+     * name of the buffered I/O backend
+     */
+    public static final String BUFFERED = "buffered";
+    /**
+     * name of the memory-mapped I/O backend
+     */
+    public static final String MAPPED = "mmap";
+
     private RandomAccessFile file;
     private ByteBuffer readBuffer;
     private ByteBuffer writeBuffer;
     private FileChannel channel;
+    private long recordID;
+    private long recordKey;
+    private long readLimit = Long.MAX_VALUE;
+    private int bufferSize;
+    private int asyncDepth = 1;
+    private AsyncReader reader;
+    private boolean pooledReadBuffer;
+    private AsyncWriter writer;
+    private SortStats stats = new SortStats();
 
     // ~ Constructor.................................................
     //
@@ -33,6 +59,25 @@ public class ByteFileProcessor {
     public ByteFileProcessor(
             String filename,
             String mode) throws Exception {
+        this(filename, mode, ByteFile.BYTES_PER_BLOCK);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * ByteFileProcessor constructor with a custom buffer size
+     * @param filename
+     *        filename in string
+     * @param mode
+     *        read, write or read and write mode in string
+     * @param bufferSize
+     *        size of the read and write buffers in bytes
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public ByteFileProcessor(
+            String filename,
+            String mode,
+            int bufferSize) throws Exception {
 
         // if write mode
         if (mode.equals("r")) {
@@ -43,21 +88,100 @@ public class ByteFileProcessor {
             this.file = new RandomAccessFile(filename, "rw");
         }
         
-        this.readBuffer = ByteBuffer.allocate(
-                ByteFile.BYTES_PER_BLOCK); // 8192
+        this.bufferSize = bufferSize;
+        this.readBuffer = ByteBuffer.allocate(bufferSize);
         
         // set buffer start at the beginning
         this.readBuffer.position(0);
         // Set limit to zero to make buffer empty
         this.readBuffer.limit(0);
 
-        this.writeBuffer = ByteBuffer.allocate(
-                ByteFile.BYTES_PER_BLOCK); // 8192
+        this.writeBuffer = ByteBuffer.allocate(bufferSize);
         this.channel = file.getChannel();
     }
+
+    // ----------------------------------------------------------
+    /**
+     * ByteFileProcessor constructor over an open channel, such as a
+     * file striped over several directories (see StripedChannel)
+     * @param channel
+     *        channel of the file, closed with the processor
+     * @param bufferSize
+     *        size of the read and write buffers in bytes
+     */
+    ByteFileProcessor(FileChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.bufferSize = bufferSize;
+        this.readBuffer = ByteBuffer.allocate(bufferSize);
+        this.readBuffer.limit(0);
+        this.writeBuffer = ByteBuffer.allocate(bufferSize);
+    }
     
     // ~ Public Method ....................................................
     //
+    // ----------------------------------------------------------
+    /**
+     * Open a file with the given I/O backend
+     * @param filename
+     *        filename in string
+     * @param mode
+     *        read, write or read and write mode in string
+     * @param bufferSize
+     *        size of the read and write buffers in bytes
+     * @param backend
+     *        BUFFERED or MAPPED
+     * @return
+     *        the file processor
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public static ByteFileProcessor open(
+            String filename,
+            String mode,
+            int bufferSize,
+            String backend) throws Exception {
+        if (backend.equals(MAPPED)) {
+            return new MappedByteFileProcessor(filename, mode);
+        }
+        if (backend.equals(BUFFERED)) {
+            return new ByteFileProcessor(filename, mode, bufferSize);
+        }
+        throw new IllegalArgumentException("unknown I/O backend " + backend);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Open a file with the given I/O backend, striped over the spill
+     * directories if there are any. A striped file is always
+     * buffered, it cannot be mapped
+     * @param filename
+     *        filename in string, its last component names the stripes
+     * @param mode
+     *        read, write or read and write mode in string
+     * @param bufferSize
+     *        size of the read and write buffers in bytes
+     * @param backend
+     *        BUFFERED or MAPPED
+     * @param spillDirs
+     *        spill directories, none to open the file itself
+     * @return
+     *        the file processor
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public static ByteFileProcessor open(
+            String filename,
+            String mode,
+            int bufferSize,
+            String backend,
+            String[] spillDirs) throws Exception {
+        if (spillDirs.length == 0) {
+            return open(filename, mode, bufferSize, backend);
+        }
+        return new ByteFileProcessor(
+            StripedChannel.open(filename, mode, spillDirs), bufferSize);
+    }
+
     // ----------------------------------------------------------
     /**
      * Method to read record from random access file
@@ -67,24 +191,158 @@ public class ByteFileProcessor {
      *         Exception (mostly IOException)
      */
     public Record readRecord() throws Exception {
-        if (readBuffer.remaining() < Record.BYTES) {
-            readBuffer.clear();
-            int bytesRead = channel.read(readBuffer);
-            if (bytesRead == -1) {
-                return null;
+        if (!readNext()) {
+            return null;
+        }
+        return new Record(recordID, 
+            Double.longBitsToDouble(Record.denormalize(recordKey)));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to decode the next record straight from the read buffer
+     * without allocating a Record; the fields are then available
+     * through getRecordID() and getRecordKey(). The key is converted
+     * once here into the order-preserving long of Record.normalize()
+     * @return
+     *         true if a record was read, false at the end of file
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public boolean readNext() throws Exception {
+        if (asyncDepth > 1) {
+            if (readBuffer.remaining() < Record.BYTES && !nextReadBuffer()) {
+                return false;
             }
+            recordID = readBuffer.getLong();
+            recordKey = Record.normalize(readBuffer.getLong());
+            return true;
+        }
+        while (readBuffer.remaining() < Record.BYTES) {
+            // keep a partial record and refill behind it
+            readBuffer.compact();
+            // never read past the read limit
+            long left = readLimit - channel.position();
+            if (left < readBuffer.remaining()) {
+                readBuffer.limit(readBuffer.position() 
+                    + (int) Math.max(0, left));
+            }
+            int bytesRead = readBuffer.hasRemaining() 
+                ? channel.read(readBuffer) : -1;
+            stats.read(bytesRead);
             readBuffer.flip();
+            if (bytesRead == -1) {
+                return false;
+            }
         }
-        
-        // If there is not enough data for a full record
-        // then return null
-        if (readBuffer.remaining() < Record.BYTES) {
-            return null;
+        recordID = readBuffer.getLong();
+        recordKey = Record.normalize(readBuffer.getLong());
+        return true;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the id of the record decoded by readNext()
+     * @return
+     *         record id
+     */
+    public long getRecordID() {
+        return recordID;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the key of the record decoded by readNext()
+     * @return
+     *         normalized record key
+     */
+    public long getRecordKey() {
+        return recordKey;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to read a block at the given position without moving
+     * the file pointer or touching the internal read buffer
+     * @param buffer
+     *        destination buffer, filled up to its limit
+     * @param position
+     *        file position to read from
+     * @return
+     *        number of bytes read, or -1 at the end of file
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public int readBlock(ByteBuffer buffer, long position) throws Exception {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int bytesRead = channel.read(buffer, position + total);
+            stats.read(bytesRead);
+            if (bytesRead == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += bytesRead;
         }
-        
-        long id = readBuffer.getLong();
-        double key = readBuffer.getDouble();
-        return new Record(id, key);
+        return total;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to copy bytes of this file straight into another file
+     * with FileChannel.transferTo, so the kernel moves them without
+     * a pass through the buffers. Pending writes of both files are
+     * synced first, the target must not hold buffered records
+     * @param position
+     *        first byte to copy
+     * @param count
+     *        number of bytes to copy
+     * @param target
+     *        processor of the destination file
+     * @param targetPosition
+     *        where the bytes go in the destination file
+     * @return
+     *        number of bytes copied, less than count at end of file
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public long transferTo(long position, long count, 
+        ByteFileProcessor target, long targetPosition) throws Exception {
+        target.sync();
+        target.channel.position(targetPosition);
+        return transferTo(position, count, target.channel);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to copy bytes of this file into any writable channel,
+     * such as a pipe, at the current position of the channel.
+     * Pending writes of this file are synced first
+     * @param position
+     *        first byte to copy
+     * @param count
+     *        number of bytes to copy
+     * @param target
+     *        destination channel
+     * @return
+     *        number of bytes copied, less than count at end of file
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public long transferTo(long position, long count, 
+        WritableByteChannel target) throws Exception {
+        sync();
+        long done = 0;
+        while (done < count) {
+            long bytes = channel.transferTo(position + done, 
+                count - done, target);
+            if (bytes <= 0) {
+                break;
+            }
+            done += bytes;
+        }
+        stats.read(done);
+        stats.transfer(0, done);
+        return done;
     }
 
     // ----------------------------------------------------------
@@ -102,7 +360,26 @@ public class ByteFileProcessor {
 
         writeBuffer.putLong(record.getID());
         writeBuffer.putDouble(record.getKey());
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to encode a record straight into the write buffer,
+     * converting the key back to its IEEE bits
+     * @param id
+     *        record id
+     * @param key
+     *        normalized record key
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void writeRecord(long id, long key) throws Exception {
+        if (writeBuffer.remaining() < Record.BYTES) {
+            flushWriteBuffer();
+        }
 
+        writeBuffer.putLong(id);
+        writeBuffer.putLong(Record.denormalize(key));
     }
 
     // ----------------------------------------------------------
@@ -113,9 +390,23 @@ public class ByteFileProcessor {
      */
     public void flushWriteBuffer() throws Exception {
         writeBuffer.flip();
+        if (asyncDepth > 1) {
+            if (!writeBuffer.hasRemaining()) {
+                writeBuffer.clear();
+                return;
+            }
+            if (writer == null) {
+                writer = new AsyncWriter(channel, channel.position(),
+                    bufferSize, asyncDepth);
+            }
+            // hand the full buffer over and keep filling a free one
+            stats.write(writeBuffer.remaining());
+            writeBuffer = writer.write(writeBuffer);
+            return;
+        }
         
         while (writeBuffer.hasRemaining()) {
-            channel.write(writeBuffer);
+            stats.write(channel.write(writeBuffer));
         }
         
         writeBuffer.clear();
@@ -129,8 +420,12 @@ public class ByteFileProcessor {
      */
     public void closeFile() throws Exception {
         flushWriteBuffer();
+        sync();
+        stopReader();
         channel.close();
-        file.close();
+        if (file != null) {
+            file.close();
+        }
     }
 
     // ----------------------------------------------------------
@@ -142,9 +437,24 @@ public class ByteFileProcessor {
      *         Exception (mostly IOException)
      */
     public long getFilePosition() throws Exception {
-        return file.getFilePointer() + writeBuffer.position();
+        if (writer != null) {
+            return writer.getEndPosition() + writeBuffer.position();
+        }
+        return channel.position() + writeBuffer.position();
     }
     
+    // ----------------------------------------------------------
+    /**
+     * Method to make every record written so far durable: pending
+     * writes are synced, then the file is forced to the device
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void force() throws Exception {
+        sync();
+        channel.force(false);
+    }
+
     // ----------------------------------------------------------
     /**
      * Method to set file position
@@ -154,7 +464,10 @@ public class ByteFileProcessor {
      *         Exception (mostly IOException)
      */
     public void setFilePosition(long position) throws Exception {
-        file.seek(position);
+        sync();
+        stopReader();
+        channel.position(position);
+        stats.seek();
         
         // clear the read buffer 
         readBuffer.clear();
@@ -173,7 +486,26 @@ public class ByteFileProcessor {
      *         Exception (mostly IOException)
      */
     public long getEndPos() throws Exception {
-        return file.length();
+        sync();
+        return channel.size();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the length of the file, truncating or extending it
+     * @param length
+     *        new file length
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void setLength(long length) throws Exception {
+        sync();
+        if (file != null) {
+            file.setLength(length);
+        }
+        else {
+            ((StripedChannel) channel).setLength(length);
+        }
     }
 
     // ----------------------------------------------------------
@@ -185,7 +517,10 @@ public class ByteFileProcessor {
      *         Exception (mostly IOException)
      */
     public void seek(long position) throws Exception {
-        file.seek(position);
+        sync();
+        stopReader();
+        channel.position(position);
+        stats.seek();
     }
 
     // ----------------------------------------------------------
@@ -197,8 +532,123 @@ public class ByteFileProcessor {
      *         Exception (mostly IOException)
      */
     public boolean hasData() throws Exception {
-        return (channel.position() < channel.size()) ||
-                (readBuffer.hasRemaining());
+        if (asyncDepth > 1) {
+            return readBuffer.remaining() >= Record.BYTES 
+                || nextReadBuffer();
+        }
+        long end = Math.min(readLimit, channel.size());
+        return (channel.position() < end) ||
+                (readBuffer.remaining() >= Record.BYTES);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to turn on asynchronous reads and writes
+     * @param depth
+     *        number of buffers per direction, including the one in
+     *        use; 1 keeps the processor synchronous
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void enableAsync(int depth) throws Exception {
+        if (depth < 1) {
+            throw new IllegalArgumentException(
+                "queue depth must be at least 1");
+        }
+        sync();
+        stopReader();
+        this.asyncDepth = depth;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to wait until every flushed buffer is on disk. The file
+     * pointer is then right after the written data, as in sync mode
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void sync() throws Exception {
+        if (writer != null) {
+            long end = writer.getEndPosition();
+            writer.close();
+            writer = null;
+            channel.position(end);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to stop sequential reads at the given position, so that
+     * a processor can read one range of a shared file
+     * @param limit
+     *        file position where reading stops
+     */
+    public void setReadLimit(long limit) {
+        this.readLimit = limit;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to count the I/O of this processor in the given
+     * statistics, which may be shared with other processors
+     * @param stats
+     *        statistics to update
+     */
+    public void setStats(SortStats stats) {
+        this.stats = stats;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to get the statistics this processor updates
+     * @return
+     *         statistics
+     */
+    public SortStats getStats() {
+        return stats;
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Method to swap in the next prefetched buffer
+     * @return
+     *         true if the new buffer holds at least one record
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private boolean nextReadBuffer() throws Exception {
+        if (reader == null) {
+            reader = new AsyncReader(channel, channel.position(), 
+                readLimit, bufferSize, asyncDepth);
+        }
+        ByteBuffer next = reader.next(pooledReadBuffer ? readBuffer : null);
+        pooledReadBuffer = next != null;
+        if (next == null) {
+            readBuffer = ByteBuffer.allocate(0);
+            return false;
+        }
+        readBuffer = next;
+        stats.read(readBuffer.remaining());
+        return readBuffer.remaining() >= Record.BYTES;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Method to stop the prefetching reader, the read buffer is empty
+     * afterwards
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private void stopReader() throws Exception {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+            pooledReadBuffer = false;
+            readBuffer = ByteBuffer.allocate(bufferSize);
+            readBuffer.limit(0);
+        }
     }
 
     // ----------------------------------------------------------
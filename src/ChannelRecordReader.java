@@ -0,0 +1,87 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A RecordReader over any readable channel, such as a pipe or
+ * standard input. Records are decoded from a buffer that is refilled
+ * with plain sequential reads, so the input never needs random
+ * access; a trailing partial record is ignored.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class ChannelRecordReader implements RecordReader {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private SortStats stats;
+    private boolean endOfInput;
+    private long recordID;
+    private long recordKey;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Create a reader
+     * @param channel
+     *        channel to read from
+     * @param bufferSize
+     *        size of the read buffer in bytes
+     * @param stats
+     *        statistics counting the reads
+     */
+    ChannelRecordReader(ReadableByteChannel channel, int bufferSize,
+        SortStats stats) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(
+            Math.max(Record.BYTES, bufferSize));
+        this.buffer.limit(0);
+        this.stats = stats;
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    @Override
+    public boolean readNext() throws Exception {
+        if (!hasData()) {
+            return false;
+        }
+        recordID = buffer.getLong();
+        recordKey = Record.normalize(buffer.getLong());
+        return true;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getRecordID() {
+        return recordID;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getRecordKey() {
+        return recordKey;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether another record can be read, reading from the
+     * channel until a whole record is buffered or the input ends
+     */
+    @Override
+    public boolean hasData() throws Exception {
+        while (buffer.remaining() < Record.BYTES && !endOfInput) {
+            // keep a partial record and refill behind it
+            buffer.compact();
+            int bytesRead = channel.read(buffer);
+            stats.read(bytesRead);
+            endOfInput = bytesRead == -1;
+            buffer.flip();
+        }
+        return buffer.remaining() >= Record.BYTES;
+    }
+}
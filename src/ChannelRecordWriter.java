@@ -0,0 +1,72 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A RecordWriter over any writable channel, such as a pipe or
+ * standard output. Each full buffer is written as soon as it fills,
+ * so the records reach the channel while they are produced.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class ChannelRecordWriter implements RecordWriter {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private SortStats stats;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Create a writer
+     * @param channel
+     *        channel to write to
+     * @param bufferSize
+     *        size of the write buffer in bytes
+     * @param stats
+     *        statistics counting the writes
+     */
+    ChannelRecordWriter(WritableByteChannel channel, int bufferSize,
+        SortStats stats) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(
+            Math.max(Record.BYTES, bufferSize));
+        this.stats = stats;
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    @Override
+    public void writeRecord(long id, long key) throws Exception {
+        if (buffer.remaining() < Record.BYTES) {
+            flushWriteBuffer();
+        }
+        buffer.putLong(id);
+        buffer.putLong(Record.denormalize(key));
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void flushWriteBuffer() throws Exception {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            stats.write(channel.write(buffer));
+        }
+        buffer.clear();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the channel, for bytes copied around the buffer; flush
+     * the buffer first
+     * @return
+     *         the channel written to
+     */
+    public WritableByteChannel getChannel() {
+        return channel;
+    }
+}
@@ -1,3 +1,8 @@
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
 /**
  * The project goal is to implement external sorting algorithm using I/O
  * if the memory is not large enough to handle the data at once
@@ -32,20 +37,94 @@
 public class Externalsort {
 
     /**
+     * Usage: java Externalsort [--memory size]
+     *     [--runs replacement|radix] [--merge heap|tree] [--plan]
+     *     [--threads n] [--async depth] [--io buffered|mmap]
+     *     [--temp dir] [--spill dir,dir,...] [--limit n]
+     *     [--checkpoint size] [--index] [--external] [--width bytes]
+     *     [--key int32|int64|float64|string] [--key-offset n]
+     *     [--key-length n] [--order big|little] [--stats] filename
+     * where size is a byte count with an optional k, m or g suffix,
+     * --runs radix generates runs by radix sorting memory loads,
+     * --plan prints the merge plan before merging, --threads
+     * generates runs on n threads, --async overlaps disk I/O with
+     * the sort using depth buffers per direction, --io mmap
+     * accesses every file through memory mappings and --stats prints
+     * the counters and timers of both phases at the end. --limit
+     * keeps only the n smallest records. The runs go to
+     * filename.runs. --checkpoint commits the progress of the sort to
+     * filename.runs.manifest every size bytes of merge output, so that
+     * a killed sort resumes when it is run again. --index writes a
+     * sparse index of the sorted file next to it (see SparseIndex).
+     * --external sorts an input that fits the budget through runs and
+     * a merge anyway.
+     * --spill stripes the runs over the given directories, one per
+     * device, which are all read at once by the merge; the stripes
+     * are deleted when the sort ends, unless a checkpoint keeps them.
+     * --width sorts records of that many bytes, whose key has the
+     * type --key (float64 by default), sits at --key-offset (8 by
+     * default), takes --key-length bytes if it is a string and is
+     * stored in --order. Any layout but the 16-byte one with a
+     * big-endian double at 8 is sorted by its tags (see TagSort).
+     * A filename of - sorts the records of standard input to standard
+     * output, spilling the runs to a temporary file in the --temp
+     * directory; the reports then go to standard error
+     * 
      * @param args
      *     Command line parameters
      * @throws Exception 
      */
     public static void main(String[] args) throws Exception {
         
-        String inputFile = args[0];
-        ReplacementSelection rs = new ReplacementSelection(
-            inputFile, 
-            "runFile.bin");
+        SortOptions options = SortOptions.parse(args);
+        boolean stream = options.getInputFile().equals("-");
+        if (!options.getLayout().isDirect()) {
+            if (stream) {
+                throw new IllegalArgumentException(
+                    "wide records are only sorted in files");
+            }
+            TagSort tagSort = new TagSort(options.getInputFile(), options);
+            tagSort.sort();
+            if (options.isShowStats()) {
+                System.out.println(tagSort.getStats().report());
+            }
+            return;
+        }
+        ReplacementSelection rs;
+        if (stream) {
+            rs = new ReplacementSelection(
+                new FileInputStream(FileDescriptor.in).getChannel(),
+                new FileOutputStream(FileDescriptor.out).getChannel(),
+                options);
+        }
+        else {
+            // every input has its own run file and manifest, so a
+            // resume never picks up the runs of another input
+            rs = new ReplacementSelection(
+                options.getInputFile(), 
+                options.getInputFile() + ".runs",
+                options);
+        }
+        // standard output carries the records of a stream sort
+        PrintStream report = stream ? System.err : System.out;
         
-        rs.sort();
-        rs.merge();
-        rs.print();
+        // close() also removes the spilled runs when the sort fails
+        try {
+            rs.sort();
+            if (options.isShowPlan()) {
+                report.println(rs.getMergePlan().report());
+            }
+            rs.merge();
+            if (!stream) {
+                rs.print();
+            }
+        }
+        finally {
+            rs.close();
+        }
+        if (options.isShowStats()) {
+            report.println(rs.getStats().report());
+        }
     }
 
 }
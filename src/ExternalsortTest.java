@@ -1,3 +1,5 @@
+import java.io.File;
+import java.util.Random;
 import student.TestCase;
 
 /**
@@ -8,10 +10,12 @@ public class ExternalsortTest extends TestCase {
     
     
     /**
-     * set up for tests
+     * set up for tests, the output of each test is captured from the
+     * start
+     * @throws Exception 
      */
-    public void setUp() {
-        //nothing to set up.
+    public void setUp() throws Exception {
+        super.setUp();
     }
     
     /**
@@ -23,4 +27,597 @@ public class ExternalsortTest extends TestCase {
         Externalsort.main(args);
     }
 
+    /**
+     * Test sorting with a larger memory budget
+     * @throws Exception 
+     */
+    public void testExternalsortMemory() throws Exception {
+        ByteFile file = new ByteFile("memoryInput.bin", 64);
+        file.writeRandomRecords(new Random(5));
+        String[] args = {"--memory", "256k", "memoryInput.bin"};
+        Externalsort.main(args);
+        assertTrue(file.isSorted());
+    }
+
+    /**
+     * Test merging with the loser tree engine
+     * @throws Exception 
+     */
+    public void testExternalsortLoserTree() throws Exception {
+        ByteFile file = new ByteFile("treeInput.bin", 64);
+        file.writeRandomRecords(new Random(6));
+        String[] args = {"--merge", "tree", "treeInput.bin"};
+        Externalsort.main(args);
+        assertTrue(file.isSorted());
+    }
+
+    /**
+     * Test a merge plan with bounded fan-in
+     */
+    public void testMergePlan() {
+        long[] lengths = {5, 1, 3, 2, 4};
+        MergePlan plan = new MergePlan(lengths, 3);
+        assertEquals(2, plan.getNumSteps());
+        // the three shortest runs are merged first
+        assertEquals(6, plan.getStep(0).getLength());
+        assertEquals(6 * Record.BYTES, plan.getIntermediateBytes());
+        assertEquals(21 * Record.BYTES, plan.getTotalBytes());
+        assertTrue(plan.getStep(1).isFinal());
+    }
+
+    /**
+     * Test a multi-pass merge with a small memory budget
+     * @throws Exception 
+     */
+    public void testExternalsortMultiPass() throws Exception {
+        ByteFile file = new ByteFile("passInput.bin", 64);
+        file.writeRandomRecords(new Random(7));
+        String[] args = {"--memory", "24k", "--plan", "passInput.bin"};
+        Externalsort.main(args);
+        assertTrue(file.isSorted());
+        String history = systemOut().getHistory();
+        assertTrue(history.startsWith("merge plan: "));
+
+        // seven runs with a fan-in of three take two intermediate steps
+        MergePlan plan = new MergePlan(new long[] {4, 4, 4, 4, 4, 4, 4}, 3);
+        assertEquals(3, plan.getNumSteps());
+        assertFalse(plan.getStep(1).isFinal());
+        assertTrue(plan.getStep(2).isFinal());
+        assertTrue(plan.report().startsWith(
+            "merge plan: 7 runs, fan-in 3, 3 steps\n"));
+    }
+
+    /**
+     * Test load-sort-store run generation with the radix sort
+     * @throws Exception 
+     */
+    public void testExternalsortRadix() throws Exception {
+        ByteFile file = new ByteFile("radixInput.bin", 64);
+        file.writeRandomRecords(new Random(12));
+        String[] args = {"--runs", "radix", "--memory", "64k", 
+            "radixInput.bin"};
+        Externalsort.main(args);
+        assertTrue(file.isSorted());
+    }
+
+    /**
+     * Test the in-memory sort of an input that fits the budget
+     * @throws Exception 
+     */
+    public void testInMemory() throws Exception {
+        ByteFile file = new ByteFile("inMemoryInput.bin", 16);
+        file.writeRandomRecords(new Random(13));
+        File runFile = new File("inMemoryRuns.bin");
+        runFile.delete();
+        ReplacementSelection rs = new ReplacementSelection(
+            "inMemoryInput.bin", "inMemoryRuns.bin", 1 << 20);
+        assertTrue(rs.isInMemory());
+        rs.sort();
+        rs.merge();
+        rs.close();
+        assertTrue(file.isSorted());
+        assertFalse(runFile.exists());
+    }
+
+    /**
+     * Test that runs with disjoint key ranges are concatenated
+     * @throws Exception 
+     */
+    public void testDisjointRuns() throws Exception {
+        ByteFile file = new ByteFile("reverseInput.bin", 64);
+        ByteFileProcessor writer = new ByteFileProcessor(
+            "reverseInput.bin", "rw");
+        int records = 64 * ByteFile.RECORDS_PER_BLOCK;
+        for (int i = 0; i < records; i++) {
+            writer.writeRecord(new Record(i, records - i));
+        }
+        writer.closeFile();
+        ReplacementSelection rs = new ReplacementSelection(
+            "reverseInput.bin", "runFile.bin", 64 * 1024);
+        rs.sort();
+        rs.merge();
+        rs.close();
+        assertTrue(file.isSorted());
+        SortStats stats = rs.getStats();
+        assertTrue(stats.getRuns() > 1);
+        assertEquals(1, stats.getMergeSteps());
+        assertEquals(stats.getRuns(), stats.getMergeFanIn());
+    }
+
+    /**
+     * Test that a merge split into key ranges keeps its buffers within
+     * the memory budget, however many threads it is given
+     * @throws Exception
+     */
+    public void testPartitionedMergeBudget() throws Exception {
+        int numRuns = 7;
+        int runRecords = 2 * ByteFile.RECORDS_PER_BLOCK;
+        ByteFileProcessor writer = new ByteFileProcessor(
+            "partitionRuns.bin", "rw");
+        writer.setLength(0);
+        for (int r = 0; r < numRuns; r++) {
+            for (int i = 0; i < runRecords; i++) {
+                writer.writeRecord(new Record(i, i * numRuns + r + 1));
+            }
+        }
+        writer.closeFile();
+        for (long memory : new long[] {64 * 1024, 1 << 20}) {
+            RunRecord[] runs = new RunRecord[numRuns];
+            for (int r = 0; r < numRuns; r++) {
+                runs[r] = new RunRecord(runRecords,
+                    (long) r * runRecords * Record.BYTES);
+            }
+            ByteFileProcessor output = new ByteFileProcessor(
+                "partitionOutput.bin", "rw");
+            output.setLength((long) numRuns * runRecords * Record.BYTES);
+            output.closeFile();
+            ByteFileProcessor runFile = new ByteFileProcessor(
+                "partitionRuns.bin", "r");
+            MemoryBudget budget = new MemoryBudget(memory);
+            PartitionedMerge merge = new PartitionedMerge(runFile,
+                "partitionRuns.bin", "partitionOutput.bin",
+                new SortOptions(), budget, RunMerger.HEAP);
+            merge.merge(runs, 4, new SortStats());
+            runFile.closeFile();
+            assertTrue(merge.getBufferBytes() <= budget.getTotalBytes());
+            assertTrue(new ByteFile("partitionOutput.bin", 14).isSorted());
+        }
+    }
+
+    /**
+     * Test sorting a stream that is only read sequentially into
+     * another stream, through a temporary run file
+     * @throws Exception 
+     */
+    public void testStreamSort() throws Exception {
+        ByteFile input = new ByteFile("streamInput.bin", 32);
+        input.writeRandomRecords(new Random(17));
+        File tempDir = new File("streamTemp");
+        tempDir.mkdir();
+        SortOptions options = new SortOptions();
+        options.setMemory(24 * 1024);
+        options.setTempDir(tempDir.getPath());
+        try (java.nio.channels.FileChannel in = 
+                new java.io.FileInputStream("streamInput.bin").getChannel();
+            java.nio.channels.FileChannel out = 
+                new java.io.FileOutputStream("streamOutput.bin")
+                .getChannel()) {
+            ReplacementSelection rs = new ReplacementSelection(
+                in, out, options);
+            rs.sort();
+            rs.merge();
+            rs.close();
+            assertTrue(rs.getStats().getMergeSteps() > 1);
+        }
+        assertEquals(new File("streamInput.bin").length(),
+            new File("streamOutput.bin").length());
+        assertTrue(new ByteFile("streamOutput.bin", 32).isSorted());
+        assertEquals(0, tempDir.list().length);
+    }
+
+    /**
+     * Test that a limit keeps the smallest records, with pruned runs
+     * and with a heap of the limit records
+     * @throws Exception 
+     */
+    public void testLimit() throws Exception {
+        ByteFile file = new ByteFile("limitInput.bin", 4);
+        SortOptions options = new SortOptions();
+        options.setLimit(4 * ByteFile.RECORDS_PER_BLOCK);
+        byte[][] outputs = new byte[2][];
+        long[] memory = {64 * 1024, 1 << 20};
+        for (int i = 0; i < memory.length; i++) {
+            new ByteFile("limitInput.bin", 64)
+                .writeRandomRecords(new Random(19));
+            options.setMemory(memory[i]);
+            ReplacementSelection rs = new ReplacementSelection(
+                "limitInput.bin", "runFile.bin", options);
+            assertEquals(i == 1, rs.isInMemory());
+            rs.sort();
+            rs.merge();
+            rs.close();
+            assertTrue(file.isSorted());
+            outputs[i] = java.nio.file.Files.readAllBytes(
+                new File("limitInput.bin").toPath());
+            assertEquals(4 * ByteFile.BYTES_PER_BLOCK, outputs[i].length);
+        }
+        assertTrue(java.util.Arrays.equals(outputs[0], outputs[1]));
+    }
+
+    /**
+     * Test that a checkpointed sort picks up the runs and the merge
+     * output of an interrupted sort
+     * @throws Exception 
+     */
+    public void testCheckpoint() throws Exception {
+        File manifest = new File("checkpointRuns.bin.manifest");
+        manifest.delete();
+        new ByteFile("checkpointInput.bin", 64)
+            .writeRandomRecords(new Random(21));
+        SortOptions options = new SortOptions();
+        options.setMemory(64 * 1024);
+        options.setCheckpointBytes(ByteFile.BYTES_PER_BLOCK);
+        // the first sort dies after its runs are generated
+        ReplacementSelection rs = new ReplacementSelection(
+            "checkpointInput.bin", "checkpointRuns.bin", options);
+        assertFalse(rs.isResumed());
+        rs.sort();
+        rs.close();
+        assertTrue(manifest.exists());
+
+        rs = new ReplacementSelection(
+            "checkpointInput.bin", "checkpointRuns.bin", options);
+        assertTrue(rs.isResumed());
+        rs.sort();
+        rs.merge();
+        rs.close();
+        assertFalse(manifest.exists());
+        assertTrue(new ByteFile("checkpointInput.bin", 64).isSorted());
+    }
+
+    /**
+     * Test that the manifest of a sort is not resumed on another
+     * input of the same length in the same place
+     * @throws Exception 
+     */
+    public void testCheckpointOtherInput() throws Exception {
+        File manifest = new File("otherRuns.bin.manifest");
+        manifest.delete();
+        new ByteFile("otherInput.bin", 64).writeRandomRecords(new Random(22));
+        SortOptions options = new SortOptions();
+        options.setMemory(64 * 1024);
+        options.setCheckpointBytes(ByteFile.BYTES_PER_BLOCK);
+        ReplacementSelection rs = new ReplacementSelection(
+            "otherInput.bin", "otherRuns.bin", options);
+        rs.sort();
+        rs.close();
+        assertTrue(manifest.exists());
+
+        // the input is replaced by different records of the same length
+        new ByteFile("otherReplacement.bin", 64)
+            .writeRandomRecords(new Random(23));
+        assertTrue(new File("otherReplacement.bin")
+            .renameTo(new File("otherInput.bin")));
+        rs = new ReplacementSelection(
+            "otherInput.bin", "otherRuns.bin", options);
+        assertFalse(rs.isResumed());
+        rs.sort();
+        rs.merge();
+        rs.close();
+        assertFalse(manifest.exists());
+        assertTrue(new ByteFile("otherInput.bin", 64).isSorted());
+    }
+
+    /**
+     * Test that runs striped over several spill directories are merged
+     * back in order and deleted by close()
+     * @throws Exception
+     */
+    public void testSpillDirs() throws Exception {
+        String[] dirs = {"spill0", "spill1", "spill2"};
+        for (String dir : dirs) {
+            new File(dir).mkdir();
+        }
+        new ByteFile("spillInput.bin", 96)
+            .writeRandomRecords(new Random(25));
+        SortOptions options = new SortOptions();
+        options.setMemory(64 * 1024);
+        options.setThreads(2);
+        options.setAsyncDepth(2);
+        options.setSpillDirs(dirs);
+        ReplacementSelection rs = new ReplacementSelection(
+            "spillInput.bin", "spillRuns.bin", options);
+        rs.sort();
+        for (int i = 0; i < dirs.length; i++) {
+            assertTrue(new File(dirs[i], "spillRuns.bin." + i).length() > 0);
+        }
+        rs.merge();
+        rs.close();
+        assertTrue(new ByteFile("spillInput.bin", 96).isSorted());
+        for (int i = 0; i < dirs.length; i++) {
+            assertFalse(new File(dirs[i], "spillRuns.bin." + i).exists());
+            new File(dirs[i]).delete();
+        }
+        assertFalse(new File("spillRuns.bin").exists());
+    }
+
+    /**
+     * Test that the sparse index written by the merge, and the one
+     * built from a partitioned output, find records with one block read
+     * @throws Exception 
+     */
+    public void testSparseIndex() throws Exception {
+        byte[][] sidecars = new byte[2][];
+        SortOptions options = new SortOptions();
+        options.setMemory(64 * 1024);
+        options.setIndex(true);
+        for (int threads = 1; threads <= 2; threads++) {
+            new ByteFile("indexInput.bin", 64)
+                .writeRandomRecords(new Random(23));
+            options.setThreads(threads);
+            ReplacementSelection rs = new ReplacementSelection(
+                "indexInput.bin", "runFile.bin", options);
+            rs.sort();
+            rs.merge();
+            rs.close();
+            sidecars[threads - 1] = java.nio.file.Files.readAllBytes(
+                new File("indexInput.bin" + SparseIndex.SUFFIX).toPath());
+        }
+        assertTrue(java.util.Arrays.equals(sidecars[0], sidecars[1]));
+
+        SparseIndex index = new SparseIndex("indexInput.bin");
+        assertEquals(64, index.getBlockCount());
+        assertEquals(64 * ByteFile.RECORDS_PER_BLOCK, index.getRecordCount());
+        ByteFileProcessor file = new ByteFileProcessor("indexInput.bin",
+            "r");
+        Random random = new Random(5);
+        Record expected = null;
+        long position = 0;
+        for (int i = 0; i < 20; i++) {
+            position = random.nextInt(64 * ByteFile.RECORDS_PER_BLOCK);
+            file.setFilePosition(position * Record.BYTES);
+            expected = file.readRecord();
+            int reads = index.getBlockReads();
+            Record found = index.find(expected.getKey());
+            assertEquals(expected.getKey(), found.getKey(), 0);
+            assertTrue(index.getBlockReads() - reads <= 1);
+        }
+        assertNull(index.find(Double.NaN));
+        assertEquals(0, index.lowerBound(Double.NEGATIVE_INFINITY));
+
+        // the scan from the last key found ends at the next key
+        RecordReader scan = index.scan(expected.getKey(),
+            Math.nextUp(expected.getKey()));
+        long count = 0;
+        while (scan.readNext()) {
+            assertEquals(expected.getKey(), Double.longBitsToDouble(
+                Record.denormalize(scan.getRecordKey())), 0);
+            count++;
+        }
+        assertTrue(count >= 1);
+        file.closeFile();
+        index.close();
+    }
+
+    /**
+     * Test that a tag sort of wide records keeps every payload with
+     * its key
+     * @throws Exception 
+     */
+    public void testTagSort() throws Exception {
+        int width = 100;
+        int numRecords = 5000;
+        java.nio.ByteBuffer records = java.nio.ByteBuffer.allocate(
+            width * numRecords);
+        Random random = new Random(29);
+        for (int i = 0; i < numRecords; i++) {
+            records.putLong(i);
+            records.putDouble(random.nextInt(1000));
+            // the payload repeats the id
+            while (records.position() % width != 0) {
+                records.put((byte) i);
+            }
+        }
+        java.nio.file.Files.write(new File("wideInput.bin").toPath(),
+            records.array());
+
+        SortOptions options = new SortOptions();
+        options.setMemory(64 * 1024);
+        options.setWidth(width);
+        TagSort tagSort = new TagSort("wideInput.bin", options);
+        tagSort.sort();
+        // nearby records of a gather batch share one read
+        assertTrue(tagSort.getStats().getIOCalls() < numRecords);
+        assertFalse(new File("wideInput.bin" + TagSort.TAG_SUFFIX).exists());
+        records = java.nio.ByteBuffer.wrap(java.nio.file.Files.readAllBytes(
+            new File("wideInput.bin").toPath()));
+        assertEquals(width * numRecords, records.capacity());
+        double last = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numRecords; i++) {
+            long id = records.getLong(i * width);
+            double key = records.getDouble(i * width + 8);
+            assertTrue(key >= last);
+            assertEquals((byte) id, records.get((i + 1) * width - 1));
+            last = key;
+        }
+    }
+
+    /**
+     * Test that every key type normalizes in key order, and a tag
+     * sort of little-endian int32 keys
+     * @throws Exception 
+     */
+    public void testRecordLayout() throws Exception {
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(16);
+        RecordLayout int32 = RecordLayout.create(8, 4, RecordLayout.INT32,
+            0, RecordLayout.LITTLE);
+        int[] ints = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+        for (int i = 1; i < ints.length; i++) {
+            buffer.putInt(4, Integer.reverseBytes(ints[i - 1]));
+            long before = int32.key(buffer, 0);
+            buffer.putInt(4, Integer.reverseBytes(ints[i]));
+            assertTrue(before < int32.key(buffer, 0));
+        }
+        RecordLayout string = RecordLayout.create(16, 2, RecordLayout.STRING,
+            3, RecordLayout.BIG);
+        byte[][] strings = {{0, 0, 0}, {0, 0, 1}, {1, 0, 0}, {(byte) 0x80,
+            0, 0}, {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF}};
+        for (int i = 1; i < strings.length; i++) {
+            buffer.position(2);
+            buffer.put(strings[i - 1]);
+            long before = string.key(buffer, 0);
+            buffer.position(2);
+            buffer.put(strings[i]);
+            assertTrue(before < string.key(buffer, 0));
+        }
+        assertTrue(new SortOptions().getLayout().isDirect());
+
+        // 12-byte records, a little-endian int32 key at 8
+        int numRecords = 3000;
+        java.nio.ByteBuffer records = java.nio.ByteBuffer.allocate(
+            12 * numRecords);
+        Random random = new Random(31);
+        for (int i = 0; i < numRecords; i++) {
+            records.putLong(i);
+            records.putInt(Integer.reverseBytes(random.nextInt()));
+        }
+        java.nio.file.Files.write(new File("layoutInput.bin").toPath(),
+            records.array());
+        SortOptions options = new SortOptions();
+        options.setWidth(12);
+        options.setKeyType(RecordLayout.INT32);
+        options.setByteOrder(RecordLayout.LITTLE);
+        new TagSort("layoutInput.bin", options).sort();
+        records = java.nio.ByteBuffer.wrap(java.nio.file.Files.readAllBytes(
+            new File("layoutInput.bin").toPath()));
+        for (int i = 1; i < numRecords; i++) {
+            assertTrue(Integer.reverseBytes(records.getInt(i * 12 - 4))
+                <= Integer.reverseBytes(records.getInt(i * 12 + 8)));
+        }
+    }
+
+    /**
+     * Test parallel run generation
+     * @throws Exception 
+     */
+    public void testExternalsortThreads() throws Exception {
+        ByteFile file = new ByteFile("threadInput.bin", 64);
+        file.writeRandomRecords(new Random(8));
+        String[] args = {"--threads", "3", "--memory", "128k", 
+            "threadInput.bin"};
+        Externalsort.main(args);
+        assertTrue(file.isSorted());
+    }
+
+    /**
+     * Test asynchronous reads and writes
+     * @throws Exception 
+     */
+    public void testExternalsortAsync() throws Exception {
+        ByteFile file = new ByteFile("asyncInput.bin", 64);
+        file.writeRandomRecords(new Random(9));
+        String[] args = {"--async", "3", "--memory", "256k", 
+            "asyncInput.bin"};
+        Externalsort.main(args);
+        assertTrue(file.isSorted());
+    }
+
+    /**
+     * Test the memory-mapped I/O backend
+     * @throws Exception 
+     */
+    public void testExternalsortMapped() throws Exception {
+        ByteFile file = new ByteFile("mappedInput.bin", 64);
+        file.writeRandomRecords(new Random(10));
+        String[] args = {"--io", "mmap", "--memory", "48k", 
+            "mappedInput.bin"};
+        Externalsort.main(args);
+        assertTrue(file.isSorted());
+    }
+
+    /**
+     * Test the sort statistics and their JMX registration
+     * @throws Exception 
+     */
+    public void testSortStats() throws Exception {
+        ByteFile file = new ByteFile("statsInput.bin", 16);
+        file.writeRandomRecords(new Random(11));
+        ReplacementSelection rs = new ReplacementSelection(
+            "statsInput.bin", "runFile.bin", 24 * 1024);
+        rs.sort();
+        MergePlan plan = rs.getMergePlan();
+        rs.merge();
+        SortStats stats = rs.getStats();
+        stats.register("statsInput");
+        long bytes = 16 * ByteFile.BYTES_PER_BLOCK;
+        long records = bytes / Record.BYTES;
+        assertEquals(bytes + plan.getTotalBytes(), stats.getBytesRead());
+        assertEquals(bytes + plan.getTotalBytes(), stats.getBytesWritten());
+        assertEquals(records, 
+            Math.round(stats.getAvgRunLength() * stats.getRuns()));
+        assertTrue(stats.getMinRunLength() <= stats.getMaxRunLength());
+        assertEquals(plan.getNumSteps(), stats.getMergeSteps());
+        assertTrue(stats.getComparisons() > records);
+        Object runs = java.lang.management.ManagementFactory
+            .getPlatformMBeanServer().getAttribute(
+            new javax.management.ObjectName(
+            "Externalsort:type=SortStats,name=\"statsInput\""), "Runs");
+        assertEquals(stats.getRuns(), ((Long) runs).longValue());
+        rs.close();
+        assertFuzzyEquals("sort statistics", 
+            stats.report().substring(0, 15));
+    }
+
+    /**
+     * Test that replacing the root keeps both heaps ordered
+     */
+    public void testReplaceMin() {
+        RecordHeap heap = new RecordHeap(4);
+        long[] keys = {5, 3, 9, 7};
+        for (int i = 0; i < keys.length; i++) {
+            heap.insert(i, keys[i]);
+        }
+        heap.replaceMin(4, 8);
+        long[] sorted = {5, 7, 8, 9};
+        for (long key : sorted) {
+            assertEquals(key, heap.minKey());
+            heap.removeMin();
+        }
+        MinHeap<Integer> minHeap = new MinHeap<>(new Integer[3], 0, 3);
+        minHeap.insert(2);
+        minHeap.insert(4);
+        minHeap.insert(6);
+        assertEquals(2, minHeap.replaceMin(5).intValue());
+        assertEquals(4, minHeap.removeMin().intValue());
+        assertEquals(5, minHeap.removeMin().intValue());
+    }
+
+    /**
+     * Test that normalized keys sort like Double.compare and
+     * convert back to the same bits
+     */
+    public void testNormalizedKeys() {
+        double[] keys = {Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, 
+            -1.5, -Double.MIN_VALUE, -0.0, 0.0, Double.MIN_VALUE, 
+            Double.MIN_NORMAL, 2.5, Double.MAX_VALUE, 
+            Double.POSITIVE_INFINITY, Double.NaN};
+        for (int i = 0; i < keys.length; i++) {
+            long bits = Double.doubleToRawLongBits(keys[i]);
+            long key = Record.normalize(bits);
+            assertEquals(bits, Record.denormalize(key));
+            for (int j = 0; j < keys.length; j++) {
+                long other = Record.normalize(
+                    Double.doubleToRawLongBits(keys[j]));
+                assertEquals(Integer.signum(Double.compare(keys[i], keys[j])),
+                    Integer.signum(Long.compare(key, other)));
+            }
+        }
+        // a negative NaN still sorts above +infinity
+        long negativeNaN = 0xFFF8000000000001L;
+        assertTrue(Record.normalize(negativeNaN) > Record.normalize(
+            Double.doubleToRawLongBits(Double.POSITIVE_INFINITY)));
+        assertEquals(negativeNaN, 
+            Record.denormalize(Record.normalize(negativeNaN)));
+    }
+
 }
@@ -0,0 +1,64 @@
+/**
+ * The merge engine built on MinHeap: the root is the winning run,
+ * which is sifted down in place once its next record is loaded and
+ * only removed when it is exhausted
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class HeapMerger implements RunMerger {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private MinHeap<RunRecord> heap;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Build the heap over every run that is not exhausted
+     * @param runs
+     *        runs to merge, with their first record loaded
+     */
+    public HeapMerger(RunRecord[] runs) {
+        heap = new MinHeap<>(new RunRecord[runs.length], 0, runs.length);
+        for (RunRecord run : runs) {
+            if (!run.isExhausted()) {
+                heap.insert(run);
+            }
+        }
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    @Override
+    public boolean isEmpty() {
+        return heap.heapSize() == 0;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public RunRecord winner() {
+        return heap.min();
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void advance(ByteFileProcessor runFile) throws Exception {
+        RunRecord minRunRecord = heap.min();
+        // the root keeps its place with the new key, or leaves the heap
+        if (minRunRecord.loadNextRecord(runFile)) {
+            heap.replaceMin(minRunRecord);
+        }
+        else {
+            heap.removeMin();
+        }
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getComparisons() {
+        return heap.comparisons();
+    }
+}
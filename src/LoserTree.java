@@ -0,0 +1,117 @@
+/**
+ * The merge engine built on a tournament (loser) tree.
+ * Internal node i holds the loser of the match played there and
+ * node 0 holds the overall winner, so replacing the winner only
+ * replays its path to the root: log k comparisons per record.
+ * Exhausted runs act as +infinity sentinels and never win.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class LoserTree implements RunMerger {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private RunRecord[] runs;
+    private int[] tree;
+    private int k;
+    private long comparisons;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Play the initial tournament
+     * @param runs
+     *        runs to merge, with their first record loaded
+     */
+    public LoserTree(RunRecord[] runs) {
+        this.runs = runs;
+        this.k = runs.length;
+        this.tree = new int[Math.max(1, k)];
+        if (k > 0) {
+            // winners of each match, leaves live at k + i
+            int[] winners = new int[2 * k];
+            for (int i = 0; i < k; i++) {
+                winners[k + i] = i;
+            }
+            for (int node = k - 1; node >= 1; node--) {
+                int left = winners[2 * node];
+                int right = winners[2 * node + 1];
+                if (beats(left, right)) {
+                    winners[node] = left;
+                    tree[node] = right;
+                }
+                else {
+                    winners[node] = right;
+                    tree[node] = left;
+                }
+            }
+            tree[0] = k == 1 ? 0 : winners[1];
+        }
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    @Override
+    public boolean isEmpty() {
+        return k == 0 || runs[tree[0]].isExhausted();
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public RunRecord winner() {
+        return runs[tree[0]];
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void advance(ByteFileProcessor runFile) throws Exception {
+        int winner = tree[0];
+        runs[winner].loadNextRecord(runFile);
+        // replay the matches on the path from the leaf to the root
+        for (int node = (winner + k) >>> 1; node >= 1; node >>>= 1) {
+            int loser = tree[node];
+            if (beats(loser, winner)) {
+                tree[node] = winner;
+                winner = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Check whether run a wins against run b. Ties go to the lower
+     * run index so that the merge is deterministic
+     * @param a
+     *        index of one run
+     * @param b
+     *        index of another run
+     * @return
+     *        true if run a has the smaller current record
+     */
+    private boolean beats(int a, int b) {
+        RunRecord runA = runs[a];
+        RunRecord runB = runs[b];
+        if (runA.isExhausted()) {
+            return false;
+        }
+        if (runB.isExhausted()) {
+            return true;
+        }
+        comparisons++;
+        long keyA = runA.getCurrKey();
+        long keyB = runB.getCurrKey();
+        return keyA < keyB || (keyA == keyB && a < b);
+    }
+}
@@ -0,0 +1,354 @@
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ByteFileProcessor that accesses the file through memory mappings
+ * instead of a heap buffer, which saves the kernel to user copy of
+ * every block. The file is mapped in chunks of 1 GB so files larger
+ * than 2 GB are supported; a chunk is remapped when the file grows.
+ * Records are read and written at a cursor, following the same
+ * read/write/position contract as the buffered processor.
+ * Bytes passing the cursor are counted in the statistics once per
+ * block, and before every remap, sync or seek; every new mapping
+ * counts as one I/O call.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class MappedByteFileProcessor extends ByteFileProcessor {
+    // ~ Fields.....................................................
+    //
+    // ----------------------------------------------------------
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    // a write mapping extends the file by this much at a time
+    private static final long GROW_SIZE = 64L << 20;
+
+    private FileChannel channel;
+    private FileChannel.MapMode mapMode;
+    private MappedByteBuffer[] chunks;
+    private long position;
+    private long readLimit = Long.MAX_VALUE;
+    private long logicalEnd;
+    private boolean grown;
+    private long recordID;
+    private long recordKey;
+    // bytes that passed the cursor since the last report to the stats
+    private long pendingRead;
+    private long pendingWritten;
+
+    // current chunk, cached for the sequential fast path
+    private MappedByteBuffer current;
+    private long currentStart;
+    private long currentEnd;
+
+    // ~ Constructor.................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * MappedByteFileProcessor constructor
+     * @param filename
+     *        filename in string
+     * @param mode
+     *        read, write or read and write mode in string
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public MappedByteFileProcessor(
+            String filename,
+            String mode) throws Exception {
+        // the buffers of the parent are not used
+        super(filename, mode, Record.BYTES);
+        this.channel = getFile().getChannel();
+        this.mapMode = mode.equals("r") 
+            ? FileChannel.MapMode.READ_ONLY 
+            : FileChannel.MapMode.READ_WRITE;
+        this.chunks = new MappedByteBuffer[0];
+        this.logicalEnd = channel.size();
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    @Override
+    public boolean readNext() throws Exception {
+        if (position + Record.BYTES > readLimit) {
+            return false;
+        }
+        if (position < currentStart 
+            || position + Record.BYTES > currentEnd) {
+            if (!map(position, Record.BYTES, false)) {
+                return false;
+            }
+        }
+        int offset = (int) (position - currentStart);
+        recordID = current.getLong(offset);
+        recordKey = Record.normalize(current.getLong(offset + Long.BYTES));
+        position += Record.BYTES;
+        pendingRead += Record.BYTES;
+        if (pendingRead >= ByteFile.BYTES_PER_BLOCK) {
+            reportTransfer();
+        }
+        return true;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getRecordID() {
+        return recordID;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getRecordKey() {
+        return recordKey;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public int readBlock(ByteBuffer buffer, long pos) throws Exception {
+        int total = 0;
+        while (buffer.hasRemaining() && map(pos + total, 1, false)) {
+            int offset = (int) (pos + total - currentStart);
+            int length = (int) Math.min(buffer.remaining(), 
+                currentEnd - pos - total);
+            ByteBuffer source = current.duplicate();
+            source.position(offset).limit(offset + length);
+            buffer.put(source);
+            total += length;
+        }
+        getStats().transfer(total, 0);
+        return total == 0 ? -1 : total;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void writeRecord(Record record) throws Exception {
+        writeRecord(record.getID(), Record.normalize(
+            Double.doubleToRawLongBits(record.getKey())));
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void writeRecord(long id, long key) throws Exception {
+        if (position < currentStart 
+            || position + Record.BYTES > currentEnd) {
+            map(position, Record.BYTES, true);
+        }
+        int offset = (int) (position - currentStart);
+        current.putLong(offset, id);
+        current.putLong(offset + Long.BYTES, Record.denormalize(key));
+        position += Record.BYTES;
+        logicalEnd = Math.max(logicalEnd, position);
+        pendingWritten += Record.BYTES;
+        if (pendingWritten >= ByteFile.BYTES_PER_BLOCK) {
+            reportTransfer();
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Records are written straight into the mapping, only the bytes
+     * not yet counted are reported to the statistics
+     */
+    @Override
+    public void flushWriteBuffer() {
+        // records already live in the page cache
+        reportTransfer();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Give back the room a write mapping added past the written data
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    @Override
+    public void sync() throws Exception {
+        reportTransfer();
+        if (grown) {
+            grown = false;
+            unmapAll();
+            if (channel.size() > logicalEnd) {
+                channel.truncate(logicalEnd);
+            }
+        }
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void closeFile() throws Exception {
+        sync();
+        unmapAll();
+        channel.close();
+        getFile().close();
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getFilePosition() {
+        return position;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void setFilePosition(long pos) throws Exception {
+        sync();
+        position = pos;
+        getStats().seek();
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getEndPos() throws Exception {
+        sync();
+        return channel.size();
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void setLength(long length) throws Exception {
+        sync();
+        unmapAll();
+        getFile().setLength(length);
+        logicalEnd = length;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void seek(long pos) throws Exception {
+        sync();
+        position = pos;
+        getStats().seek();
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public boolean hasData() throws Exception {
+        return position + Record.BYTES 
+            <= Math.min(readLimit, channel.size());
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void setReadLimit(long limit) {
+        this.readLimit = limit;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Mappings need no background threads, the page cache already
+     * reads ahead and writes behind
+     * @param depth
+     *        ignored
+     */
+    @Override
+    public void enableAsync(int depth) {
+        // nothing to do
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Write the dirty pages of every mapping back before forcing the
+     * file
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    @Override
+    public void force() throws Exception {
+        for (MappedByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                chunk.force();
+            }
+        }
+        super.force();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Report the bytes counted so far to the old statistics before
+     * switching
+     * @param stats
+     *        statistics receiving the counts from now on
+     */
+    @Override
+    public void setStats(SortStats stats) {
+        reportTransfer();
+        super.setStats(stats);
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Make the chunk holding pos the current chunk, mapping or
+     * remapping it if it does not cover pos + length yet. A read
+     * mapping stops at the end of the file, a write mapping extends
+     * the file by GROW_SIZE
+     * @param pos
+     *        file position
+     * @param length
+     *        number of bytes needed at pos, within one chunk
+     * @param write
+     *        true if the bytes will be written
+     * @return
+     *        false if a read goes past the end of the file
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private boolean map(long pos, int length, boolean write) 
+        throws Exception {
+        int index = (int) (pos >>> CHUNK_SHIFT);
+        long start = (long) index << CHUNK_SHIFT;
+        long needed = pos + length - start;
+        if (index >= chunks.length) {
+            MappedByteBuffer[] larger = new MappedByteBuffer[index + 1];
+            System.arraycopy(chunks, 0, larger, 0, chunks.length);
+            chunks = larger;
+        }
+        MappedByteBuffer chunk = chunks[index];
+        if (chunk == null || chunk.capacity() < needed) {
+            reportTransfer();
+            long size = channel.size();
+            long end = Math.min(size - start, CHUNK_SIZE);
+            if (needed > end) {
+                if (!write) {
+                    return false;
+                }
+                end = Math.min(needed + GROW_SIZE, CHUNK_SIZE);
+                grown = true;
+            }
+            chunk = channel.map(mapMode, start, end);
+            chunks[index] = chunk;
+            getStats().call();
+        }
+        current = chunk;
+        currentStart = start;
+        currentEnd = start + chunk.capacity();
+        return true;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count the bytes that passed the cursor since the last report
+     */
+    private void reportTransfer() {
+        if (pendingRead > 0 || pendingWritten > 0) {
+            getStats().transfer(pendingRead, pendingWritten);
+            pendingRead = 0;
+            pendingWritten = 0;
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Drop every mapping, they are remapped on demand
+     */
+    private void unmapAll() {
+        chunks = new MappedByteBuffer[0];
+        current = null;
+        currentStart = 0;
+        currentEnd = 0;
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * The class to split a memory budget between the phases of the sort.
+ * The budget counts record bytes: the replacement selection heap,
+ * the input and output buffers of run generation, and the read
+ * buffers of the runs during the merge.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class MemoryBudget {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * default budget: 8 heap blocks plus one input and one output block
+     */
+    public static final long DEFAULT_BYTES = 10L * ByteFile.BYTES_PER_BLOCK;
+
+    /**
+     * largest I/O buffer, more than this only adds latency
+     */
+    public static final int MAX_IO_BLOCKS = 128;
+
+    /**
+     * largest read buffer of a single run during the merge
+     */
+    public static final int MAX_MERGE_BLOCKS = 1024;
+
+    private long totalBytes;
+    private int ioDepth;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Create a memory budget
+     * @param totalBytes
+     *        number of bytes available to the sort
+     */
+    public MemoryBudget(long totalBytes) {
+        this(totalBytes, 1);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Create a memory budget for asynchronous I/O, where the input and
+     * the output each cycle through ioDepth buffers
+     * @param totalBytes
+     *        number of bytes available to the sort
+     * @param ioDepth
+     *        number of buffers per direction
+     */
+    public MemoryBudget(long totalBytes, int ioDepth) {
+        if (totalBytes < 3L * ByteFile.BYTES_PER_BLOCK) {
+            throw new IllegalArgumentException(
+                "memory budget must be at least 3 blocks ("
+                + 3 * ByteFile.BYTES_PER_BLOCK + " bytes)");
+        }
+        this.totalBytes = totalBytes;
+        this.ioDepth = Math.max(1, ioDepth);
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Parse a size such as "4g", "512m", "64k" or "81920"
+     * @param size
+     *        size string with an optional k, m or g suffix
+     * @return
+     *        number of bytes
+     */
+    public static long parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        long unit = 1;
+        char suffix = value.charAt(value.length() - 1);
+        if (suffix == 'k') {
+            unit = 1L << 10;
+        }
+        else if (suffix == 'm') {
+            unit = 1L << 20;
+        }
+        else if (suffix == 'g') {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * unit;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the whole budget
+     * @return
+     *         total number of bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Size of the input buffer and of the output buffer used while
+     * generating runs and while writing the merged output.
+     * Each direction gets a tenth of the budget, in whole blocks,
+     * split between its ioDepth buffers
+     * @return
+     *         buffer size in bytes
+     */
+    public int getIOBufferSize() {
+        long blocks = totalBytes / ByteFile.BYTES_PER_BLOCK / 10 / ioDepth;
+        blocks = Math.max(1, Math.min(MAX_IO_BLOCKS, blocks));
+        return (int) blocks * ByteFile.BYTES_PER_BLOCK;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Number of records the replacement selection heap can hold,
+     * which is whatever is left once the I/O buffers are taken
+     * @return
+     *         heap capacity in records
+     */
+    public int getHeapRecords() {
+        long bytes = totalBytes - 2L * ioDepth * getIOBufferSize();
+        long records = Math.max(ByteFile.RECORDS_PER_BLOCK,
+            bytes / Record.BYTES);
+        return (int) Math.min(Integer.MAX_VALUE - 8, records);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether an input can be sorted in memory: its records and
+     * the second pair of arrays of the radix sort must both fit in the
+     * room of the heap
+     * @param inputBytes
+     *        size of the input
+     * @return
+     *         true if the input fits
+     */
+    public boolean fitsInMemory(long inputBytes) {
+        return 2 * inputBytes <= (long) getHeapRecords() * Record.BYTES;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Largest number of runs merged at once, so that every run
+     * keeps at least one block of read buffer next to the output
+     * buffers and, with prefetching, the spare block read ahead
+     * @param prefetch
+     *        true if the merge reads the next block into a spare
+     *        buffer
+     * @return
+     *         merge fan-in, at least 2
+     */
+    public int getMaxFanIn(boolean prefetch) {
+        long blocks = (totalBytes - getMergeOutputBytes())
+            / ByteFile.BYTES_PER_BLOCK - (prefetch ? 1 : 0);
+        return (int) Math.max(2, Math.min(Integer.MAX_VALUE, blocks));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Size of the read buffer of each run during the merge.
+     * The whole budget but the output buffers is shared by the runs,
+     * with at least one block and at most MAX_MERGE_BLOCKS per run
+     * @param numRuns
+     *        number of runs merged at once, plus one for the spare
+     *        buffer of prefetching
+     * @return
+     *         buffer size in bytes, a whole number of records
+     */
+    public int getMergeBufferSize(int numRuns) {
+        return runBufferSize(totalBytes - getMergeOutputBytes(), numRuns);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Bytes of the output of a merge, which cycles through ioDepth
+     * buffers of getIOBufferSize()
+     * @return
+     *         output buffer bytes
+     */
+    public long getMergeOutputBytes() {
+        return (long) ioDepth * getIOBufferSize();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Number of key ranges a merge of numRuns runs can be split into
+     * so that every range, with its own output buffers and at least
+     * one block per run, gets an equal share of the budget
+     * @param numRuns
+     *        number of runs merged at once
+     * @return
+     *         number of ranges, at least 1
+     */
+    public int getMaxPartitions(int numRuns) {
+        long range = getMergeOutputBytes()
+            + (long) numRuns * ByteFile.BYTES_PER_BLOCK;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+            totalBytes / range));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Size of the read buffer of each sub-run of a merge split into
+     * key ranges. Every range gets an equal share of the budget, its
+     * output buffers included, shared by the sub-runs as in
+     * getMergeBufferSize
+     * @param numRuns
+     *        number of runs merged at once
+     * @param partitions
+     *        number of key ranges, at most getMaxPartitions(numRuns)
+     * @return
+     *         buffer size in bytes, a whole number of records
+     */
+    public int getPartitionBufferSize(int numRuns, int partitions) {
+        return runBufferSize(
+            totalBytes / Math.max(1, partitions) - getMergeOutputBytes(),
+            numRuns);
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Share bytes between the read buffers of runs, with at least one
+     * block and at most MAX_MERGE_BLOCKS per run
+     * @param bytes
+     *        bytes for all the runs
+     * @param numRuns
+     *        number of runs
+     * @return
+     *         buffer size in bytes, a whole number of records
+     */
+    private static int runBufferSize(long bytes, int numRuns) {
+        long share = bytes / Math.max(1, numRuns);
+        share = Math.max(ByteFile.BYTES_PER_BLOCK, Math.min(
+            (long) MAX_MERGE_BLOCKS * ByteFile.BYTES_PER_BLOCK, share));
+        return (int) (share - share % Record.BYTES);
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * The class to plan a multi-pass merge with bounded fan-in.
+ * Runs are merged Huffman style: each step merges the shortest runs
+ * available, and the first step takes just enough runs that every
+ * later step is a full fan-in merge. This minimizes the number of
+ * bytes rewritten by intermediate steps.
+ * Runs are numbered by position: the initial runs are 0..n-1 and
+ * the output of each intermediate step gets the next number.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class MergePlan {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private long[] runLengths;
+    private int initialRuns;
+    private int fanIn;
+    private Step[] steps;
+    private int numSteps;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Plan the merge of the given runs
+     * @param lengths
+     *        number of records in each initial run
+     * @param fanIn
+     *        largest number of runs merged at once, at least 2
+     */
+    public MergePlan(long[] lengths, int fanIn) {
+        if (fanIn < 2) {
+            throw new IllegalArgumentException("fan-in must be at least 2");
+        }
+        int n = lengths.length;
+        this.initialRuns = n;
+        this.fanIn = fanIn;
+        // each intermediate step turns at least two runs into one
+        this.runLengths = new long[Math.max(1, 2 * n)];
+        this.steps = new Step[Math.max(1, n)];
+        System.arraycopy(lengths, 0, runLengths, 0, n);
+        if (n > 0) {
+            plan();
+        }
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Get the number of merge steps, the last one writes the output
+     * @return
+     *         number of steps
+     */
+    public int getNumSteps() {
+        return numSteps;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get a merge step
+     * @param i
+     *        step index
+     * @return
+     *        the step
+     */
+    public Step getStep(int i) {
+        return steps[i];
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the total number of runs, initial and intermediate
+     * @return
+     *         number of runs
+     */
+    public int getRunCount() {
+        return initialRuns + Math.max(0, numSteps - 1);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the fan-in limit of the plan
+     * @return
+     *         largest number of runs merged at once
+     */
+    public int getFanIn() {
+        return fanIn;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Bytes written by the intermediate steps
+     * @return
+     *         bytes rewritten before the final merge
+     */
+    public long getIntermediateBytes() {
+        long records = 0;
+        for (int i = 0; i < numSteps - 1; i++) {
+            records += steps[i].getLength();
+        }
+        return records * Record.BYTES;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Bytes written by the whole merge, intermediate steps and output
+     * @return
+     *         bytes moved by the merge
+     */
+    public long getTotalBytes() {
+        if (numSteps == 0) {
+            return 0;
+        }
+        return getIntermediateBytes()
+            + steps[numSteps - 1].getLength() * Record.BYTES;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Describe the plan and the bytes it will move
+     * @return
+     *         printable report, one line per step
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("merge plan: ").append(initialRuns).append(" runs, fan-in ")
+            .append(fanIn).append(", ").append(numSteps).append(" steps\n");
+        for (int i = 0; i < numSteps; i++) {
+            Step step = steps[i];
+            sb.append("  step ").append(i + 1).append(": merge runs");
+            for (int run : step.getInputs()) {
+                sb.append(' ').append(run);
+            }
+            if (step.isFinal()) {
+                sb.append(" -> output");
+            }
+            else {
+                sb.append(" -> run ").append(step.getOutput());
+            }
+            sb.append(" (").append(step.getLength()).append(" records)\n");
+        }
+        sb.append("  intermediate bytes: ").append(getIntermediateBytes())
+            .append(", total bytes written: ").append(getTotalBytes());
+        return sb.toString();
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Build the steps with a heap of runs ordered by length
+     */
+    private void plan() {
+        int n = initialRuns;
+        PlannedRun[] array = new PlannedRun[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = new PlannedRun(i, runLengths[i]);
+        }
+        MinHeap<PlannedRun> heap = new MinHeap<>(array, n, n);
+        int nextRun = n;
+
+        // a first partial merge makes every later step a full one
+        int take = n <= fanIn ? n : (n - 2) % (fanIn - 1) + 2;
+        while (heap.heapSize() > 1) {
+            int[] inputs = new int[take];
+            long length = 0;
+            for (int i = 0; i < take; i++) {
+                PlannedRun run = heap.removeMin();
+                inputs[i] = run.id;
+                length += run.length;
+            }
+            boolean last = heap.heapSize() == 0;
+            int output = last ? -1 : nextRun++;
+            steps[numSteps++] = new Step(inputs, output, length);
+            if (!last) {
+                runLengths[output] = length;
+                heap.insert(new PlannedRun(output, length));
+            }
+            take = Math.min(fanIn, heap.heapSize());
+        }
+        if (numSteps == 0) {
+            // a single run is still copied to the output
+            steps[numSteps++] = new Step(new int[] { 0 }, -1, runLengths[0]);
+        }
+    }
+
+    // ~ Inner Class ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * One merge step of the plan
+     */
+    public static class Step {
+        private int[] inputs;
+        private int output;
+        private long length;
+
+        /**
+         * Create a step
+         * @param inputs
+         *        runs merged by this step
+         * @param output
+         *        run written by this step, -1 for the final output
+         * @param length
+         *        number of records written
+         */
+        Step(int[] inputs, int output, long length) {
+            this.inputs = inputs;
+            this.output = output;
+            this.length = length;
+        }
+
+        /**
+         * Get the runs merged by this step
+         * @return
+         *         run numbers
+         */
+        public int[] getInputs() {
+            return inputs;
+        }
+
+        /**
+         * Get the run written by this step
+         * @return
+         *         run number, -1 for the final output
+         */
+        public int getOutput() {
+            return output;
+        }
+
+        /**
+         * Get the number of records written by this step
+         * @return
+         *         records written
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Check whether this step writes the final output
+         * @return
+         *         true for the last step
+         */
+        public boolean isFinal() {
+            return output < 0;
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * A run waiting in the planning heap, ordered by length
+     */
+    private static class PlannedRun implements Comparable<PlannedRun> {
+        private int id;
+        private long length;
+
+        /**
+         * Create a planned run
+         * @param id
+         *        run number
+         * @param length
+         *        number of records
+         */
+        PlannedRun(int id, long length) {
+            this.id = id;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(PlannedRun o) {
+            int cmp = Long.compare(length, o.length);
+            return cmp != 0 ? cmp : Integer.compare(id, o.id);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A background reader for the merge that uses forecasting (Knuth,
+ * TAOCP 5.4.6): the run whose buffer ends with the smallest key is
+ * the next one to run dry, so its next block is read ahead into one
+ * spare buffer. When the run needs it the buffers are swapped, the
+ * emptied buffer becomes the spare and the next block is forecast.
+ * Only one block is read ahead at a time, so the merge costs a single
+ * buffer more, and the reads go through a processor of their own.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class MergePrefetcher {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private RunRecord[] runs;
+    private ByteFileProcessor runFile;
+    private SortStats stats = new SortStats();
+    private ExecutorService reader;
+    private ByteBuffer spare;
+    private RunRecord pending;
+    private Future<Integer> inFlight;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Open the run file for the background reads
+     * @param runs
+     *        runs of the merge
+     * @param runFileName
+     *        run file name
+     * @param spillDirs
+     *        directories the run file is striped over, if any
+     * @param bufferSize
+     *        size of the run buffers in bytes
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    MergePrefetcher(RunRecord[] runs, String runFileName,
+        String[] spillDirs, int bufferSize) throws Exception {
+        this.runs = runs;
+        this.runFile = ByteFileProcessor.open(runFileName, "r",
+            Record.BYTES, ByteFileProcessor.BUFFERED, spillDirs);
+        this.runFile.setStats(stats);
+        this.stats.startMerge();
+        this.spare = ByteBuffer.allocate(Math.max(Record.BYTES,
+            bufferSize - bufferSize % Record.BYTES));
+        this.reader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "merge-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Hand over the block read ahead for a run
+     * @param run
+     *        run whose buffer ran dry
+     * @param empty
+     *        the drained buffer of the run, kept as the new spare
+     * @return
+     *        the next block of the run, or null if it was not read
+     *        ahead and must be read now
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public ByteBuffer take(RunRecord run, ByteBuffer empty)
+        throws Exception {
+        if (pending != run) {
+            return null;
+        }
+        inFlight.get();
+        ByteBuffer block = spare;
+        spare = empty;
+        pending = null;
+        return block;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Start reading ahead the next block of the run that will run dry
+     * first, unless a block is already being read ahead
+     */
+    public void forecast() {
+        if (pending != null) {
+            return;
+        }
+        RunRecord next = null;
+        long nextKey = 0;
+        for (RunRecord run : runs) {
+            if (run.hasMoreBlocks()) {
+                long key = run.getLastBufferedKey();
+                if (next == null || key < nextKey) {
+                    next = run;
+                    nextKey = key;
+                }
+            }
+        }
+        if (next != null) {
+            RunRecord run = next;
+            ByteBuffer target = spare;
+            pending = run;
+            inFlight = reader.submit(() -> run.readNextBlock(runFile, target));
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Wait for the last read, stop the reader and close the file
+     * @return
+     *        counters of the background reads
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public SortStats close() throws Exception {
+        try {
+            if (pending != null) {
+                inFlight.get();
+                pending = null;
+            }
+        }
+        finally {
+            reader.shutdown();
+            runFile.closeFile();
+        }
+        return stats;
+    }
+}
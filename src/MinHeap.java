@@ -15,6 +15,7 @@ class MinHeap<T extends Comparable<T>> {
     private T[] heap; // Pointer to the heap array
     private int capacity; // Maximum size of the heap
     private int n; // Number of active things currently in heap
+    private long comparisons; // Number of comparisons so far
 
     // ----------------------------------------------------------
     /**
@@ -95,6 +96,15 @@ class MinHeap<T extends Comparable<T>> {
         return n;
     }
 
+    /**
+     * Return the number of comparisons made so far
+     *
+     * @return comparisons
+     */
+    public long comparisons() {
+        return comparisons;
+    }
+
     /**
      * own descriptive comment
      *
@@ -180,6 +190,17 @@ class MinHeap<T extends Comparable<T>> {
     }
 
 
+    /**
+     * Return minimum value without removing it
+     *
+     * @return minimum value
+     */
+    public T min() {
+        assert n > 0 : "Heap is empty";
+        return heap[0];
+    }
+
+
     /**
      * Remove and return minimum value
      *
@@ -196,6 +217,25 @@ class MinHeap<T extends Comparable<T>> {
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Replace the minimum value and return it, with a single
+     * siftDown instead of a removeMin() followed by an insert().
+     * The new value may also be the old root after its key changed
+     *
+     * @param newVal
+     *            value taking the place of the minimum
+     * @return the replaced minimum value
+     */
+    public T replaceMin(T newVal) {
+        assert n > 0 : "Heap is empty; cannot replace";
+        T min = heap[0];
+        heap[0] = newVal;
+        siftDown(0);
+        return min;
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Remove and return element at specified position
@@ -269,6 +309,7 @@ class MinHeap<T extends Comparable<T>> {
      * @return boolean
      */
     private boolean isLessThan(int pos1, int pos2) {
+        comparisons++;
         return heap[pos1].compareTo(heap[pos2]) < 0;
     }
 }
@@ -0,0 +1,273 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The class to merge runs on several threads. Keys sampled from the
+ * runs give splitters that cut the key space into one range per
+ * thread; each run is binary searched for the records of every range,
+ * so the output offset of a range is the number of records below it.
+ * Every thread then merges its sub-runs with its own merge engine
+ * and writes its region of the output through its own processors.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class PartitionedMerge {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    // keys sampled from each run per partition
+    private static final int SAMPLES_PER_PARTITION = 16;
+
+    private String runFileName;
+    private String outputFileName;
+    private SortOptions options;
+    private MemoryBudget budget;
+    private String mergeEngine;
+    private ByteFileProcessor runFile;
+    private ByteBuffer probe = ByteBuffer.allocate(Record.BYTES);
+    private long bufferBytes;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Set up a partitioned merge
+     * @param runFile
+     *        processor of the run file, used to sample and search
+     * @param runFileName
+     *        run file name, opened again by every thread
+     * @param outputFileName
+     *        output file name, opened again by every thread
+     * @param options
+     *        sort options, for the I/O backend and queue depth
+     * @param budget
+     *        memory budget shared by the threads
+     * @param mergeEngine
+     *        RunMerger.HEAP or RunMerger.TREE
+     */
+    PartitionedMerge(
+        ByteFileProcessor runFile,
+        String runFileName,
+        String outputFileName,
+        SortOptions options,
+        MemoryBudget budget,
+        String mergeEngine) {
+        this.runFile = runFile;
+        this.runFileName = runFileName;
+        this.outputFileName = outputFileName;
+        this.options = options;
+        this.budget = budget;
+        this.mergeEngine = mergeEngine;
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Merge the runs into the output file from position 0. The output
+     * file must already be as long as the runs together, so that no
+     * thread has to grow it. The budget is shared by the key ranges,
+     * so there are no more of them than leave a block per sub-run
+     * @param runs
+     *        runs to merge
+     * @param partitions
+     *        largest number of key ranges, one thread each
+     * @param stats
+     *        statistics receiving the counters of every thread
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    public void merge(RunRecord[] runs, int partitions, SortStats stats)
+        throws Exception {
+        partitions = Math.min(partitions,
+            budget.getMaxPartitions(runs.length));
+        long[] splitters = splitters(runs, partitions);
+        // bounds[p][r]: first record of run r in partition p
+        long[][] bounds = new long[partitions + 1][runs.length];
+        for (int r = 0; r < runs.length; r++) {
+            bounds[partitions][r] = runs[r].getRunLength();
+            for (int p = 1; p < partitions; p++) {
+                bounds[p][r] = lowerBound(runs[r], splitters[p - 1]);
+            }
+        }
+        int bufferSize = budget.getPartitionBufferSize(runs.length,
+            partitions);
+        bufferBytes = partitions * budget.getMergeOutputBytes();
+
+        ExecutorService pool = Executors.newFixedThreadPool(partitions);
+        try {
+            List<Future<SortStats>> results = new ArrayList<>();
+            long offset = 0;
+            for (int p = 0; p < partitions; p++) {
+                RunRecord[] group = new RunRecord[runs.length];
+                for (int r = 0; r < runs.length; r++) {
+                    long first = bounds[p][r];
+                    long count = bounds[p + 1][r] - first;
+                    group[r] = new RunRecord(count,
+                        runs[r].getRunPos() + first * Record.BYTES);
+                    int size = (int) Math.min(bufferSize,
+                        count * Record.BYTES);
+                    group[r].allocateBuffer(size);
+                    bufferBytes += size;
+                }
+                long start = offset;
+                results.add(pool.submit(() -> mergeRange(group, start)));
+                for (RunRecord run : group) {
+                    offset += run.getRunLength() * Record.BYTES;
+                }
+            }
+            for (Future<SortStats> result : results) {
+                stats.add(result.get());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the bytes of the buffers of the last merge: the read buffers
+     * of every sub-run and the output buffer of every key range
+     * @return
+     *         buffer bytes
+     */
+    long getBufferBytes() {
+        return bufferBytes;
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Merge the sub-runs of one key range into the output
+     * @param group
+     *        sub-runs of the range
+     * @param offset
+     *        output position of the range
+     * @return
+     *        counters of this thread
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private SortStats mergeRange(RunRecord[] group, long offset)
+        throws Exception {
+        SortStats stats = new SortStats();
+        stats.startMerge();
+        ByteFileProcessor input = ByteFileProcessor.open(runFileName,
+            "r", Record.BYTES, options.getIOBackend(),
+            options.getSpillDirs());
+        ByteFileProcessor output = ByteFileProcessor.open(outputFileName,
+            "rw", budget.getIOBufferSize(), options.getIOBackend());
+        input.setStats(stats);
+        output.setStats(stats);
+        try {
+            output.seek(offset);
+            output.enableAsync(options.getAsyncDepth());
+            for (RunRecord run : group) {
+                run.loadNextRecord(input);
+            }
+            RunMerger merger = RunMerger.create(mergeEngine, group);
+            while (!merger.isEmpty()) {
+                RunRecord winner = merger.winner();
+                output.writeRecord(winner.getCurrID(), winner.getCurrKey());
+                merger.advance(input);
+            }
+            stats.compare(merger.getComparisons());
+        }
+        finally {
+            output.closeFile();
+            input.closeFile();
+        }
+        return stats;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Pick partitions - 1 splitters from keys sampled evenly from
+     * every run, in proportion to its length
+     * @param runs
+     *        runs to merge
+     * @param partitions
+     *        number of key ranges
+     * @return
+     *        the splitters in ascending order
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private long[] splitters(RunRecord[] runs, int partitions)
+        throws Exception {
+        long total = 0;
+        for (RunRecord run : runs) {
+            total += run.getRunLength();
+        }
+        int numSamples = SAMPLES_PER_PARTITION * partitions;
+        long[] samples = new long[numSamples + runs.length];
+        int count = 0;
+        for (RunRecord run : runs) {
+            long length = run.getRunLength();
+            int share = (int) Math.max(1, numSamples * length / total);
+            for (int i = 0; i < share && count < samples.length; i++) {
+                samples[count++] = keyAt(run, length * i / share);
+            }
+        }
+        Arrays.sort(samples, 0, count);
+        long[] splitters = new long[partitions - 1];
+        for (int p = 1; p < partitions; p++) {
+            splitters[p - 1] = samples[(int) ((long) count * p / partitions)];
+        }
+        return splitters;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Binary search a run for its first record whose key is not
+     * below the given key
+     * @param run
+     *        sorted run
+     * @param key
+     *        normalized key
+     * @return
+     *        index of the record in the run, or its length
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private long lowerBound(RunRecord run, long key) throws Exception {
+        long low = 0;
+        long high = run.getRunLength();
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (keyAt(run, mid) < key) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Read the key of one record of a run
+     * @param run
+     *        run
+     * @param index
+     *        record index in the run
+     * @return
+     *        normalized key
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private long keyAt(RunRecord run, long index) throws Exception {
+        probe.clear();
+        runFile.readBlock(probe, run.getRunPos() + index * Record.BYTES);
+        return Record.normalize(probe.getLong(Long.BYTES));
+    }
+}
@@ -0,0 +1,281 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// -------------------------------------------------------------------------
+/**
+ * An LSD radix sort of records stored in parallel primitive arrays,
+ * used by the load-sort-store run generation and the in-memory sort.
+ * Keys are normalized
+ * (see Record.normalize), so flipping the sign bit turns their signed
+ * order into the unsigned order of their bytes. The sort makes eight
+ * stable passes of one byte each, skipping any byte that is the same
+ * in every record, and ping-pongs between two pairs of arrays, so it
+ * needs twice the memory of the records it sorts.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class RadixSorter {
+    // memory per record of capacity: an id and a key in each of the
+    // two pairs of arrays
+    static final int BYTES_PER_RECORD = 4 * Long.BYTES;
+
+    private static final int RADIX = 256;
+    private static final int DIGITS = Long.BYTES;
+    // smallest slice worth a thread of its own
+    private static final int MIN_SLICE = 1 << 16;
+
+    private long[] ids; // record ids, one per slot
+    private long[] keys; // normalized record keys, one per slot
+    private long[] idBuffer; // destination of the next pass
+    private long[] keyBuffer;
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new RadixSorter object.
+     *
+     * @param capacity
+     *            maximum number of records
+     */
+    RadixSorter(int capacity) {
+        this.ids = new long[capacity];
+        this.keys = new long[capacity];
+        this.idBuffer = new long[capacity];
+        this.keyBuffer = new long[capacity];
+    }
+
+
+    /**
+     * Return the maximum number of records
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return ids.length;
+    }
+
+
+    /**
+     * Store a record in a slot
+     *
+     * @param pos
+     *            slot
+     * @param id
+     *            record id
+     * @param key
+     *            normalized record key
+     */
+    public void set(int pos, long id, long key) {
+        ids[pos] = id;
+        keys[pos] = key;
+    }
+
+
+    /**
+     * Return the id in a slot
+     *
+     * @param pos
+     *            slot
+     * @return record id
+     */
+    public long id(int pos) {
+        return ids[pos];
+    }
+
+
+    /**
+     * Return the key in a slot
+     *
+     * @param pos
+     *            slot
+     * @return normalized record key
+     */
+    public long key(int pos) {
+        return keys[pos];
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Sort the first n slots by key. Records with equal keys keep
+     * their order
+     *
+     * @param n
+     *            number of records
+     */
+    public void sort(int n) {
+        sortRange(0, n);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Sort the first n slots by key on several threads: each thread
+     * radix sorts one slice, then neighbouring slices are merged in
+     * pairs, round after round, through the second pair of arrays.
+     * Records with equal keys keep their order
+     *
+     * @param n
+     *            number of records
+     * @param threads
+     *            number of threads
+     * @throws Exception
+     *         Exception (mostly ExecutionException)
+     */
+    public void parallelSort(int n, int threads) throws Exception {
+        int slices = Math.max(1, Math.min(threads, n / MIN_SLICE));
+        if (slices == 1) {
+            sortRange(0, n);
+            return;
+        }
+        int[] bounds = new int[slices + 1];
+        for (int i = 0; i <= slices; i++) {
+            bounds[i] = (int) ((long) n * i / slices);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(slices);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < slices; i++) {
+                int from = bounds[i];
+                int to = bounds[i + 1];
+                tasks.add(pool.submit(() -> sortRange(from, to)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            while (slices > 1) {
+                int merged = (slices + 1) / 2;
+                int[] next = new int[merged + 1];
+                tasks.clear();
+                for (int i = 0; i < merged; i++) {
+                    int lo = bounds[2 * i];
+                    int mid = bounds[Math.min(2 * i + 1, slices)];
+                    int hi = bounds[Math.min(2 * i + 2, slices)];
+                    next[i] = lo;
+                    tasks.add(pool.submit(() -> mergeRanges(lo, mid, hi)));
+                }
+                next[merged] = n;
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+                swapBuffers();
+                bounds = next;
+                slices = merged;
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Radix sort the slots [from, to). The passes alternate between
+     * the two pairs of arrays, the result is copied back if it ends
+     * up in the second pair
+     *
+     * @param from
+     *            first slot
+     * @param to
+     *            end of the slots (exclusive)
+     */
+    private void sortRange(int from, int to) {
+        int n = to - from;
+        if (n < 2) {
+            return;
+        }
+        // one pass builds the histograms of all eight bytes
+        int[] counts = new int[DIGITS * RADIX];
+        for (int i = from; i < to; i++) {
+            long key = keys[i] ^ Long.MIN_VALUE;
+            for (int digit = 0; digit < DIGITS; digit++) {
+                counts[digit * RADIX 
+                    + (int) ((key >>> (8 * digit)) & 0xFF)]++;
+            }
+        }
+        long first = keys[from] ^ Long.MIN_VALUE;
+        long[] srcKeys = keys;
+        long[] srcIds = ids;
+        long[] dstKeys = keyBuffer;
+        long[] dstIds = idBuffer;
+        for (int digit = 0; digit < DIGITS; digit++) {
+            int base = digit * RADIX;
+            int shift = 8 * digit;
+            // skip a byte that every record shares
+            if (counts[base + (int) ((first >>> shift) & 0xFF)] == n) {
+                continue;
+            }
+            // turn the counts into the first slot of each bucket
+            int offset = from;
+            for (int b = base; b < base + RADIX; b++) {
+                int count = counts[b];
+                counts[b] = offset;
+                offset += count;
+            }
+            for (int i = from; i < to; i++) {
+                long key = srcKeys[i];
+                int slot = counts[base + (int) (((key ^ Long.MIN_VALUE)
+                    >>> shift) & 0xFF)]++;
+                dstKeys[slot] = key;
+                dstIds[slot] = srcIds[i];
+            }
+            long[] temp = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = temp;
+            temp = srcIds;
+            srcIds = dstIds;
+            dstIds = temp;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, from, keys, from, n);
+            System.arraycopy(srcIds, from, ids, from, n);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Merge the sorted slots [lo, mid) and [mid, hi) into the same
+     * slots of the second pair of arrays, ties go to the left
+     *
+     * @param lo
+     *            first slot of the left range
+     * @param mid
+     *            first slot of the right range
+     * @param hi
+     *            end of the right range (exclusive)
+     */
+    private void mergeRanges(int lo, int mid, int hi) {
+        int left = lo;
+        int right = mid;
+        for (int out = lo; out < hi; out++) {
+            if (right >= hi || (left < mid && keys[left] <= keys[right])) {
+                keyBuffer[out] = keys[left];
+                idBuffer[out] = ids[left];
+                left++;
+            }
+            else {
+                keyBuffer[out] = keys[right];
+                idBuffer[out] = ids[right];
+                right++;
+            }
+        }
+    }
+
+
+    /**
+     * The sorted output of a pass becomes the input of the next one
+     */
+    private void swapBuffers() {
+        long[] temp = keys;
+        keys = keyBuffer;
+        keyBuffer = temp;
+        temp = ids;
+        ids = idBuffer;
+        idBuffer = temp;
+    }
+}
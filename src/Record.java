@@ -12,6 +12,12 @@ public class Record
      */
     public static final int BYTES = 16;
 
+    /**
+     * number of negative NaN bit patterns, which normalize() moves
+     * from below -infinity to above +infinity
+     */
+    private static final long NEGATIVE_NANS = 0x000FFFFFFFFFFFFFL;
+
     private long            recID;
     private double          key;
 
@@ -54,6 +60,39 @@ public class Record
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Turn the IEEE bits of a key into a long that sorts, as a signed
+     * long, in the same order as Double.compare sorts the keys:
+     * negative keys get their magnitude bits flipped, then the range
+     * is rotated so every NaN lands above +infinity. The mapping is a
+     * bijection, denormalize() gives back the exact bits
+     *
+     * @param bits
+     *            raw IEEE bits of the key
+     * @return order-preserving key
+     */
+    public static long normalize(long bits)
+    {
+        return (bits ^ ((bits >> 63) & Long.MAX_VALUE)) - NEGATIVE_NANS;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Inverse of normalize()
+     *
+     * @param key
+     *            order-preserving key
+     * @return raw IEEE bits of the key
+     */
+    public static long denormalize(long key)
+    {
+        long flipped = key + NEGATIVE_NANS;
+        return flipped ^ ((flipped >> 63) & Long.MAX_VALUE);
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Compare two records based on their keys
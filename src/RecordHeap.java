@@ -0,0 +1,317 @@
+// Primitive min-heap for run generation, modeled on MinHeap
+// Can use `java -ea` (Java's VM arguments) to Enable Assertions
+// These assertions will check valid heap positions
+
+// -------------------------------------------------------------------------
+/**
+ * A min-heap of records stored in parallel primitive arrays, so that
+ * replacement selection never allocates an object per record.
+ * Slot i holds the record (ids[i], keys[i]); records are ordered by
+ * their normalized key (see Record.normalize), compared as longs.
+ * 
+ * Records deferred to the next run are parked right behind the heap:
+ * slots [0, n) hold the heap and slots [n, n + deferred) the deferred
+ * records. Every removal frees the slot at the end of the heap, which
+ * then takes either the deferred record or the last deferred one, so
+ * both regions stay contiguous and startNextRun() only has to
+ * re-heapify the front of the arrays.
+ * 
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class RecordHeap {
+    private long[] ids; // record ids, one per slot
+    private long[] keys; // normalized record keys, one per slot
+    private int capacity; // Maximum size of the heap
+    private int n; // Number of active things currently in heap
+    private int deferred; // Number of records parked behind the heap
+    private long comparisons; // Number of key comparisons so far
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new empty RecordHeap object.
+     *
+     * @param capacity
+     *            maximum number of records
+     */
+    RecordHeap(int capacity) {
+        this.ids = new long[capacity];
+        this.keys = new long[capacity];
+        this.capacity = capacity;
+        this.n = 0;
+    }
+
+
+    /**
+     * Return current size of the heap
+     *
+     * @return current heapSize 
+     */
+    public int heapSize() {
+        return n;
+    }
+
+
+    /**
+     * Return the number of records deferred to the next run
+     *
+     * @return number of deferred records
+     */
+    public int deferredSize() {
+        return deferred;
+    }
+
+
+    /**
+     * Return the maximum number of records
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Forcefully changes the heap size. May need a buildHeap() afterwards
+     *
+     * @param newSize
+     *            new size
+     */
+    public void setHeapSize(int newSize) {
+        assert newSize + deferred <= capacity : "Heap size is beyond max";
+        n = newSize;
+    }
+
+
+    /**
+     * Store a record in a slot without restoring the heap property,
+     * used to preload the heap before buildHeap()
+     *
+     * @param pos
+     *            slot
+     * @param id
+     *            record id
+     * @param key
+     *            record key
+     */
+    public void set(int pos, long id, long key) {
+        ids[pos] = id;
+        keys[pos] = key;
+    }
+
+
+    /**
+     * Return the id of the minimum record
+     *
+     * @return id at the root
+     */
+    public long minID() {
+        assert n > 0 : "Heap is empty";
+        return ids[0];
+    }
+
+
+    /**
+     * Return the key of the minimum record
+     *
+     * @return key at the root
+     */
+    public long minKey() {
+        assert n > 0 : "Heap is empty";
+        return keys[0];
+    }
+
+
+    /**
+     * Return the number of key comparisons made so far
+     *
+     * @return comparisons
+     */
+    public long comparisons() {
+        return comparisons;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Insert a record into heap
+     *
+     * @param id
+     *            record id
+     * @param key
+     *            record key
+     */
+    public void insert(long id, long key) {
+        assert n + deferred < capacity : "Heap is full; cannot insert";
+        if (deferred > 0) {
+            // make room: the first deferred record moves to the end
+            ids[n + deferred] = ids[n];
+            keys[n + deferred] = keys[n];
+        }
+        ids[n] = id;
+        keys[n] = key;
+        n++;
+        siftUp(n - 1);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Organize contents of array to satisfy the heap structure
+     */
+    public void buildHeap() {
+        // Call sift down on each internal node, starting from bottom
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+
+    /**
+     * Remove the minimum record, read it first with minID()/minKey()
+     */
+    public void removeMin() {
+        assert n > 0 : "Heap is empty; cannot remove";
+        n--;
+        if (n > 0) {
+            ids[0] = ids[n]; // Move last value to the root
+            keys[0] = keys[n];
+            siftDown(0); // Put new heap root val in correct place
+        }
+        if (deferred > 0) {
+            // close the gap: the last deferred record takes slot n
+            ids[n] = ids[n + deferred];
+            keys[n] = keys[n + deferred];
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Replace the minimum record, read it first with minID()/minKey().
+     * A single siftDown restores the order, where removeMin() and
+     * insert() would sift twice; deferred records stay in place
+     *
+     * @param id
+     *            id of the new record
+     * @param key
+     *            key of the new record
+     */
+    public void replaceMin(long id, long key) {
+        assert n > 0 : "Heap is empty; cannot replace";
+        ids[0] = id;
+        keys[0] = key;
+        siftDown(0);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Remove the minimum record and park a record for the next run
+     * in the slot this frees at the end of the heap
+     *
+     * @param id
+     *            id of the deferred record
+     * @param key
+     *            key of the deferred record
+     */
+    public void defer(long id, long key) {
+        assert n > 0 : "Heap is empty; cannot remove";
+        n--;
+        if (n > 0) {
+            ids[0] = ids[n]; // Move last value to the root
+            keys[0] = keys[n];
+        }
+        ids[n] = id;
+        keys[n] = key;
+        deferred++;
+        if (n > 0) {
+            siftDown(0);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * End the current run early: the records left in the heap are
+     * dropped and the deferred records move to the front
+     */
+    public void discardRun() {
+        System.arraycopy(ids, n, ids, 0, deferred);
+        System.arraycopy(keys, n, keys, 0, deferred);
+        n = 0;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Turn the deferred records into the heap of the next run
+     */
+    public void startNextRun() {
+        assert n == 0 : "Current run is not finished";
+        n = deferred;
+        deferred = 0;
+        buildHeap();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Moves the record at pos down to its correct place.
+     * The record is held aside and children are shifted up,
+     * so each level costs one move instead of a swap
+     *
+     * @param pos
+     *            position
+     */
+    private void siftDown(int pos) {
+        long id = ids[pos];
+        long key = keys[pos];
+        int half = n >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            // compare the left and right children
+            if (child + 1 < n) {
+                comparisons++;
+                if (keys[child + 1] < keys[child]) {
+                    child++;
+                }
+            }
+            comparisons++;
+            if (keys[child] >= key) {
+                break; // stop early
+            }
+            ids[pos] = ids[child];
+            keys[pos] = keys[child];
+            pos = child; // keep sifting down
+        }
+        ids[pos] = id;
+        keys[pos] = key;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Moves the record at pos up to its correct place
+     *
+     * @param pos
+     *            position
+     */
+    private void siftUp(int pos) {
+        long id = ids[pos];
+        long key = keys[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            comparisons++;
+            if (keys[parent] <= key) {
+                break; // stop early
+            }
+            ids[pos] = ids[parent];
+            keys[pos] = keys[parent];
+            pos = parent; // keep sifting up
+        }
+        ids[pos] = id;
+        keys[pos] = key;
+    }
+}
@@ -0,0 +1,294 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The descriptor of a fixed-width record format: the record width,
+ * where the key sits in the record, its type and its byte order. The
+ * sort engine only ever compares normalized keys, longs whose signed
+ * order is the order of the keys, so every key type comes with its
+ * own subclass that decodes a key straight from a buffer into one,
+ * with no boxing and no branch on the type per record:
+ * <ul>
+ * <li>int32 and int64 keys are sign-extended and kept as they are,</li>
+ * <li>float64 keys go through Record.normalize,</li>
+ * <li>string keys of up to 8 bytes are packed big-endian, padded with
+ * zero bytes and sign-flipped, so their signed order is the unsigned
+ * lexicographic order of the bytes.</li>
+ * </ul>
+ * Records of the standard layout (16 bytes, a long id and a
+ * big-endian double key at offset 8) are sorted directly, every other
+ * layout through the tags of its records (see TagSort).
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public abstract class RecordLayout {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * name of 4-byte signed integer keys
+     */
+    public static final String INT32 = "int32";
+    /**
+     * name of 8-byte signed integer keys
+     */
+    public static final String INT64 = "int64";
+    /**
+     * name of IEEE double keys
+     */
+    public static final String FLOAT64 = "float64";
+    /**
+     * name of fixed-length byte string keys
+     */
+    public static final String STRING = "string";
+    /**
+     * name of the big-endian byte order
+     */
+    public static final String BIG = "big";
+    /**
+     * name of the little-endian byte order
+     */
+    public static final String LITTLE = "little";
+
+    private int width;
+    private int keyOffset;
+    private int keyLength;
+    private String keyType;
+    private boolean littleEndian;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Check and keep the fields common to every layout
+     * @param width
+     *        bytes per record
+     * @param keyOffset
+     *        position of the key in the record
+     * @param keyLength
+     *        bytes of the key
+     * @param keyType
+     *        name of the key type
+     * @param littleEndian
+     *        true for little-endian keys
+     */
+    private RecordLayout(int width, int keyOffset, int keyLength,
+        String keyType, boolean littleEndian) {
+        if (keyOffset < 0 || keyOffset + keyLength > width) {
+            throw new IllegalArgumentException("a " + keyLength
+                + "-byte key at " + keyOffset + " does not fit a "
+                + width + "-byte record");
+        }
+        this.width = width;
+        this.keyOffset = keyOffset;
+        this.keyLength = keyLength;
+        this.keyType = keyType;
+        this.littleEndian = littleEndian;
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Create a layout
+     * @param width
+     *        bytes per record
+     * @param keyOffset
+     *        position of the key in the record
+     * @param keyType
+     *        INT32, INT64, FLOAT64 or STRING
+     * @param keyLength
+     *        bytes of a STRING key, 1 to 8, ignored for the others
+     * @param byteOrder
+     *        BIG or LITTLE, ignored for STRING keys
+     * @return
+     *        the layout
+     */
+    public static RecordLayout create(int width, int keyOffset,
+        String keyType, int keyLength, String byteOrder) {
+        boolean little;
+        if (byteOrder.equals(LITTLE)) {
+            little = true;
+        }
+        else if (byteOrder.equals(BIG)) {
+            little = false;
+        }
+        else {
+            throw new IllegalArgumentException(
+                "unknown byte order " + byteOrder);
+        }
+        if (keyType.equals(INT32)) {
+            return new Int32Layout(width, keyOffset, little);
+        }
+        if (keyType.equals(INT64)) {
+            return new Int64Layout(width, keyOffset, little);
+        }
+        if (keyType.equals(FLOAT64)) {
+            return new Float64Layout(width, keyOffset, little);
+        }
+        if (keyType.equals(STRING)) {
+            if (keyLength < 1 || keyLength > Long.BYTES) {
+                throw new IllegalArgumentException(
+                    "string keys take 1 to 8 bytes");
+            }
+            return new StringLayout(width, keyOffset, keyLength);
+        }
+        throw new IllegalArgumentException("unknown key type " + keyType);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Decode the key of a record into a normalized key
+     * @param buffer
+     *        buffer holding the record
+     * @param record
+     *        position of the record in the buffer
+     * @return
+     *        normalized key
+     */
+    public abstract long key(ByteBuffer buffer, int record);
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether records of this layout are sorted directly
+     * rather than by their tags
+     * @return
+     *         true for the 16-byte id and big-endian double layout
+     */
+    public boolean isDirect() {
+        return width == Record.BYTES && keyOffset == Long.BYTES
+            && keyType.equals(FLOAT64) && !littleEndian;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the record width
+     * @return
+     *         bytes per record
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the position of the key in a record
+     * @return
+     *         key offset in bytes
+     */
+    public int getKeyOffset() {
+        return keyOffset;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the size of the key
+     * @return
+     *         key length in bytes
+     */
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the key type
+     * @return
+     *         INT32, INT64, FLOAT64 or STRING
+     */
+    public String getKeyType() {
+        return keyType;
+    }
+
+    // ~ Inner Class .....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * 4-byte signed integer keys
+     */
+    private static class Int32Layout extends RecordLayout {
+        private int offset;
+        private boolean little;
+
+        Int32Layout(int width, int keyOffset, boolean little) {
+            super(width, keyOffset, Integer.BYTES, INT32, little);
+            this.offset = keyOffset;
+            this.little = little;
+        }
+
+        @Override
+        public long key(ByteBuffer buffer, int record) {
+            int key = buffer.getInt(record + offset);
+            return little ? Integer.reverseBytes(key) : key;
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * 8-byte signed integer keys
+     */
+    private static class Int64Layout extends RecordLayout {
+        private int offset;
+        private boolean little;
+
+        Int64Layout(int width, int keyOffset, boolean little) {
+            super(width, keyOffset, Long.BYTES, INT64, little);
+            this.offset = keyOffset;
+            this.little = little;
+        }
+
+        @Override
+        public long key(ByteBuffer buffer, int record) {
+            long key = buffer.getLong(record + offset);
+            return little ? Long.reverseBytes(key) : key;
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * IEEE double keys
+     */
+    private static class Float64Layout extends RecordLayout {
+        private int offset;
+        private boolean little;
+
+        Float64Layout(int width, int keyOffset, boolean little) {
+            super(width, keyOffset, Long.BYTES, FLOAT64, little);
+            this.offset = keyOffset;
+            this.little = little;
+        }
+
+        @Override
+        public long key(ByteBuffer buffer, int record) {
+            long bits = buffer.getLong(record + offset);
+            return Record.normalize(little ? Long.reverseBytes(bits) : bits);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Byte string keys of up to 8 bytes, compared as unsigned bytes
+     */
+    private static class StringLayout extends RecordLayout {
+        private int offset;
+        private int length;
+
+        StringLayout(int width, int keyOffset, int keyLength) {
+            super(width, keyOffset, keyLength, STRING, false);
+            this.offset = keyOffset;
+            this.length = keyLength;
+        }
+
+        @Override
+        public long key(ByteBuffer buffer, int record) {
+            long packed = 0;
+            for (int i = 0; i < length; i++) {
+                packed = packed << 8
+                    | (buffer.get(record + offset + i) & 0xFF);
+            }
+            // pad on the right, then flip the sign bit so the signed
+            // order is the unsigned order
+            return (packed << (8 * (Long.BYTES - length))) ^ Long.MIN_VALUE;
+        }
+    }
+}
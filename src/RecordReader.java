@@ -0,0 +1,47 @@
+/**
+ * The interface of a sequential source of records, such as a file
+ * processor or a stream. Keys come out normalized (see
+ * Record.normalize)
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public interface RecordReader {
+
+    // ----------------------------------------------------------
+    /**
+     * Decode the next record, its fields are then available through
+     * getRecordID() and getRecordKey()
+     * @return
+     *         true if a record was read, false at the end of input
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    boolean readNext() throws Exception;
+
+    // ----------------------------------------------------------
+    /**
+     * Get the id of the record decoded by readNext()
+     * @return
+     *         record id
+     */
+    long getRecordID();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the key of the record decoded by readNext()
+     * @return
+     *         normalized record key
+     */
+    long getRecordKey();
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether another record can be read
+     * @return
+     *         true if there is still data
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    boolean hasData() throws Exception;
+}
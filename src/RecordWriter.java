@@ -0,0 +1,30 @@
+/**
+ * The interface of a sequential destination of records, such as a
+ * file processor or a stream
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public interface RecordWriter {
+
+    // ----------------------------------------------------------
+    /**
+     * Encode a record into the write buffer, converting the key back
+     * to its IEEE bits
+     * @param id
+     *        record id
+     * @param key
+     *        normalized record key
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    void writeRecord(long id, long key) throws Exception;
+
+    // ----------------------------------------------------------
+    /**
+     * Write out and clear the write buffer
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    void flushWriteBuffer() throws Exception;
+}
@@ -1,8 +1,22 @@
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The class containing replacement selection algorithm
+ * 
+ * A file is sorted in place, through the run file given by the
+ * caller. A stream is read sequentially from a readable channel, its
+ * runs spill to a temporary file, and the final merge writes to a
+ * writable channel as it goes
  *
  * @author Guann-Luen Chen
  * @version 2024.11.04
@@ -12,19 +26,67 @@ public class ReplacementSelection {
     // ~ Fields ..........................................................
     //
     // ----------------------------------------------------------
-    private static final int MAX_BLOCKS = 8;
-    private static final int MAX_RECORDS = 
-        MAX_BLOCKS * ByteFile.RECORDS_PER_BLOCK;
+    /**
+     * name of the replacement selection run generation
+     */
+    public static final String REPLACEMENT = "replacement";
+    /**
+     * name of the load-sort-store run generation with a radix sort
+     */
+    public static final String RADIX = "radix";
 
-    private MinHeap<Record> heap;
+    // number of samples bounding the output of a limited sort
+    private static final int MAX_SAMPLES = 64;
+    // the manifest of a sort lives next to its run file
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private MemoryBudget budget;
+    private int maxRecords;
+
+    private RecordHeap heap;
     private ByteFileProcessor inputProcessor;
     private ByteFileProcessor runProcessor;
+    // records come from the input file or from a stream
+    private RecordReader source;
+    // output stream of a stream sort, null when sorting a file
+    private ChannelRecordWriter sink;
+    private File tempRunFile;
 
-    private LinkedList<Record> unsortedList;
     private LinkedList<RunRecord> runRecordList;
-    private Record[] heapArray;
     
     private String inputFileName;
+    private String runFileName;
+    private String mergeEngine = RunMerger.HEAP;
+    private String runEngine = REPLACEMENT;
+    private int threads = 1;
+    private SortOptions options;
+    private SortStats stats = new SortStats();
+    // true when the whole input is sorted in memory, without runs
+    private boolean inMemory;
+    // only the limit smallest records reach the output
+    private long limit;
+    // true when a heap of the limit records replaces the sort
+    private boolean topK;
+    // once the runs hold limit records up to some key, keys from it
+    // up are pruned from the input
+    private boolean pruning;
+    private long keyBound;
+    // every sampleStep-th key written to a run, only the smallest are
+    // kept (inverted, so the root is the largest), enough to stand
+    // for limit records
+    private RecordHeap samples;
+    private int sampleStep;
+    // durable progress of the sort, null unless it is checkpointed
+    private SortManifest manifest;
+    private long checkpointRecords;
+    // true when the runs of an interrupted sort were picked up
+    private boolean resumed;
+    // run generation reads the input from here on
+    private long inputStart;
+    private long recordsRead;
+    // keeps the first record of every output block while the output
+    // is written, null if it is not written in one pass
+    private SparseIndexWriter indexWriter;
 
     // ~ Constructor ......................................................
     //
@@ -41,15 +103,395 @@ public class ReplacementSelection {
     public ReplacementSelection(
         String inputFile, 
         String runFile) throws Exception {
-        this.inputProcessor = new ByteFileProcessor(inputFile, "rw");
-        this.runProcessor = new ByteFileProcessor(runFile, "rw");
-        
-        this.unsortedList = new LinkedList<>();
+        this(inputFile, runFile, new SortOptions());
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Initialize file processors with a memory budget
+     * @param inputFile
+     *        input file name in string
+     * @param runFile
+     *        run file name in string
+     * @param memory
+     *        memory budget in bytes, split between the heap,
+     *        the I/O buffers and the merge buffers
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    public ReplacementSelection(
+        String inputFile, 
+        String runFile,
+        long memory) throws Exception {
+        this(inputFile, runFile, memoryOptions(memory));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Initialize file processors from the sort options
+     * @param inputFile
+     *        input file name in string
+     * @param runFile
+     *        run file name in string
+     * @param options
+     *        memory budget, merge engine, threads and I/O mode
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    public ReplacementSelection(
+        String inputFile, 
+        String runFile,
+        SortOptions options) throws Exception {
+        this(inputFile, runFile, options, options.getMemory(), 
+            0, Long.MAX_VALUE);
+        setMergeEngine(options.getMergeEngine());
+        setThreads(options.getThreads());
+        if (!inMemory && options.getCheckpointBytes() > 0) {
+            openManifest(runFile + MANIFEST_SUFFIX);
+        }
+        // the runs take exactly the size of the input, sizing the run
+        // file up front drops stale data and lets workers and mappings
+        // write their ranges in place
+        if (!inMemory && !resumed) {
+            runProcessor.setLength(inputProcessor.getEndPos());
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Initialize a worker that generates the runs of one byte range
+     * of the input. Replacement selection writes exactly as many bytes
+     * as it reads, so the runs go to the same range of the run file
+     * @param inputFile
+     *        input file name in string
+     * @param runFile
+     *        run file name in string
+     * @param options
+     *        sort options
+     * @param memory
+     *        memory budget of this worker in bytes
+     * @param start
+     *        first byte of the range
+     * @param end
+     *        end of the range (exclusive)
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    ReplacementSelection(
+        String inputFile,
+        String runFile,
+        SortOptions options,
+        long memory,
+        long start,
+        long end) throws Exception {
+        this.options = options;
+        setRunEngine(options.getRunEngine());
+        setLimit(options.getLimit());
+        this.budget = new MemoryBudget(memory, options.getAsyncDepth());
+        this.maxRecords = budget.getHeapRecords();
+        int bufferSize = budget.getIOBufferSize();
+        this.inputProcessor = ByteFileProcessor.open(
+            inputFile, "rw", bufferSize, options.getIOBackend());
+        this.inputProcessor.setReadLimit(end);
+        this.inputProcessor.enableAsync(options.getAsyncDepth());
+        this.inputProcessor.setStats(stats);
+        this.source = inputProcessor;
+        // a worker only sees a range, only a whole input that fits, or
+        // a limit that fits, is sorted in memory, and then no run file
+        // is created
+        boolean whole = start == 0 && end == Long.MAX_VALUE;
+        this.topK = whole && limitFitsInMemory()
+            && !budget.fitsInMemory(inputProcessor.getEndPos());
+        this.inMemory = topK || (whole && !options.isExternal()
+            && budget.fitsInMemory(inputProcessor.getEndPos()));
+        if (!inMemory) {
+            this.runProcessor = ByteFileProcessor.open(runFile, "rw",
+                bufferSize, options.getIOBackend(), options.getSpillDirs());
+            if (start > 0) {
+                this.inputProcessor.seek(start);
+                this.runProcessor.seek(start);
+            }
+            this.runProcessor.enableAsync(options.getAsyncDepth());
+            this.runProcessor.setStats(stats);
+        }
+
         this.runRecordList = new LinkedList<>();
         this.inputFileName = inputFile;
+        this.runFileName = runFile;
     }
+
+    // ----------------------------------------------------------
+    /**
+     * Initialize a stream sort. The input is only read sequentially,
+     * so it can be a pipe or standard input; the runs spill to a
+     * temporary file in the temp directory of the options, which
+     * close() deletes. Runs are generated and merged on one thread
+     * and the channels are left open. With a limit that fits the
+     * budget no run is spilled at all
+     * @param in
+     *        channel of the unsorted records
+     * @param out
+     *        channel receiving the sorted records
+     * @param options
+     *        memory budget, engines, I/O mode and temp directory
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    public ReplacementSelection(
+        ReadableByteChannel in,
+        WritableByteChannel out,
+        SortOptions options) throws Exception {
+        this.options = options;
+        setRunEngine(options.getRunEngine());
+        setMergeEngine(options.getMergeEngine());
+        setLimit(options.getLimit());
+        this.budget = new MemoryBudget(options.getMemory(), 
+            options.getAsyncDepth());
+        this.maxRecords = budget.getHeapRecords();
+        int bufferSize = budget.getIOBufferSize();
+        this.source = new ChannelRecordReader(in, bufferSize, stats);
+        this.sink = new ChannelRecordWriter(out, bufferSize, stats);
+        this.runRecordList = new LinkedList<>();
+        this.topK = limitFitsInMemory();
+        this.inMemory = topK;
+        if (inMemory) {
+            return;
+        }
+        this.tempRunFile = File.createTempFile("externalsort", ".run",
+            new File(options.getTempDir()));
+        this.tempRunFile.deleteOnExit();
+        this.runFileName = tempRunFile.getPath();
+        this.runProcessor = ByteFileProcessor.open(runFileName, "rw",
+            bufferSize, options.getIOBackend(), options.getSpillDirs());
+        this.runProcessor.enableAsync(options.getAsyncDepth());
+        this.runProcessor.setStats(stats);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Default options with the given memory budget
+     * @param memory
+     *        memory budget in bytes
+     * @return
+     *        sort options
+     */
+    private static SortOptions memoryOptions(long memory) {
+        SortOptions options = new SortOptions();
+        options.setMemory(memory);
+        return options;
+    }
+
     // ~ Private Method ....................................................
     //
+    // ----------------------------------------------------------
+    /**
+     * Pick up the runs of an interrupted sort of the same input, or
+     * start a new manifest. Finished run generation is skipped;
+     * unfinished run generation goes on after the input the committed
+     * runs cover, or starts over if they cover none
+     * @param fileName
+     *        manifest file name
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void openManifest(String fileName) throws Exception {
+        checkpointRecords = Math.max(1,
+            options.getCheckpointBytes() / Record.BYTES);
+        File input = new File(inputFileName);
+        manifest = SortManifest.load(fileName, input, inputProcessor,
+            runProcessor);
+        if (manifest == null || manifest.getRuns().length == 0) {
+            manifest = new SortManifest(fileName, input);
+            return;
+        }
+        resumed = true;
+        long runsEnd = 0;
+        for (RunRecord run : manifest.getRuns()) {
+            runRecordList.insertTail(run);
+            runsEnd = Math.max(runsEnd, 
+                run.getRunPos() + run.getRunLength() * Record.BYTES);
+        }
+        if (!manifest.isGenerated()) {
+            inputStart = manifest.getInputCovered();
+            inputProcessor.setFilePosition(inputStart);
+            runProcessor.setFilePosition(runsEnd);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Delete the manifest, if there is one, once the sort is done;
+     * close() then knows the run file is no longer needed
+     */
+    private void deleteManifest() {
+        if (manifest != null) {
+            manifest.delete();
+            manifest = null;
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Commit a run to the manifest, if there is one, once it is on
+     * disk
+     * @param run
+     *        run just generated
+     * @param covered
+     *        bytes at the front of the input whose records are all in
+     *        the committed runs
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void commitRun(RunRecord run, long covered) throws Exception {
+        if (manifest != null) {
+            runProcessor.flushWriteBuffer();
+            runProcessor.force();
+            manifest.addRun(run, covered);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the writer of the output file, which keeps the sparse index
+     * when the sort writes one
+     * @return
+     *        writer of the sorted records, from the current position
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private RecordWriter finalOutput() throws Exception {
+        if (!options.isIndex()) {
+            return inputProcessor;
+        }
+        indexWriter = new SparseIndexWriter(inputFileName, inputProcessor);
+        return indexWriter;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Write the sparse index of the output file once it is complete.
+     * An output that was not written through finalOutput() in one
+     * pass (concatenated, merged on several threads or resumed) is
+     * indexed by reading the first record of every block
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void finishIndex() throws Exception {
+        if (!options.isIndex() || sink != null) {
+            return;
+        }
+        if (indexWriter != null) {
+            indexWriter.close();
+            indexWriter = null;
+        }
+        else {
+            SparseIndexWriter.build(inputFileName);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Copy the run list into an array
+     * @param capacity
+     *        length of the array, at least the number of runs
+     * @return
+     *        the runs in the order they were generated
+     */
+    private RunRecord[] listRuns(int capacity) {
+        RunRecord[] runs = new RunRecord[capacity];
+        ListNode<RunRecord> currRunNode = runRecordList.getHead();
+        for (int i = 0; currRunNode != null; i++) {
+            runs[i] = currRunNode.getData();
+            currRunNode = currRunNode.getNext();
+        }
+        return runs;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Keep only the limit smallest records
+     * @param limit
+     *        record count, Long.MAX_VALUE to keep every record
+     */
+    private void setLimit(long limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException(
+                "limit must be at least 1");
+        }
+        this.limit = limit;
+        if (limit < Long.MAX_VALUE) {
+            this.sampleStep = (int) Math.min(Integer.MAX_VALUE,
+                (limit + MAX_SAMPLES - 1) / MAX_SAMPLES);
+            this.samples = new RecordHeap(
+                (int) ((limit + sampleStep - 1) / sampleStep));
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether a heap of the limit records fits the budget,
+     * together with the arrays it is drained into
+     * @return
+     *        true for a limit that fits
+     */
+    private boolean limitFitsInMemory() {
+        return limit < Integer.MAX_VALUE
+            && budget.fitsInMemory(limit * Record.BYTES);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Read the next input record that can still reach the output,
+     * skipping the records pruned by the key bound
+     * @return
+     *        true if a record was read, false at the end of input
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private boolean readNext() throws Exception {
+        while (source.readNext()) {
+            recordsRead++;
+            if (!pruning || source.getRecordKey() < keyBound) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Lower the key bound after a run reached the limit: the run holds
+     * limit records up to this key, so no other record with this key
+     * or a larger one is needed
+     * @param key
+     *        normalized key of the last record of the run
+     */
+    private void pruneFrom(long key) {
+        keyBound = pruning ? Math.min(keyBound, key) : key;
+        pruning = true;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Sample a key written to a run, standing for the sampleStep
+     * records of the run up to it. Once the smallest samples stand
+     * for limit records, the largest of them bounds the output
+     * @param key
+     *        normalized key
+     */
+    private void sample(long key) {
+        long inverted = ~key;
+        if (samples.heapSize() < samples.capacity()) {
+            samples.insert(0, inverted);
+        }
+        else if (inverted > samples.minKey()) {
+            samples.replaceMin(0, inverted);
+        }
+        if (samples.heapSize() == samples.capacity()) {
+            pruneFrom(~samples.minKey());
+        }
+    }
+
     // ----------------------------------------------------------
     /**
      * Method to build up the heap
@@ -57,43 +499,27 @@ public class ReplacementSelection {
      *         Exception (mostly IOExeption)
      */
     private void buildHeap() throws Exception {
-        heapArray = new Record[MAX_RECORDS];
         int numRead = 0;
 
-        for (int i = 0; i < MAX_RECORDS 
-            && inputProcessor.hasData(); i++) {
-            Record record = inputProcessor.readRecord();
-            if (record == null) {
-                break;
-            }
-            heapArray[i] = record;
+        // decode records straight into the heap slots
+        while (numRead < maxRecords && readNext()) {
+            heap.set(numRead, source.getRecordID(),
+                source.getRecordKey());
             numRead++;
         }
-        heap = new MinHeap<>(heapArray, numRead, MAX_RECORDS);
+        heap.setHeapSize(numRead);
+        heap.buildHeap();
     }    
     
     // ---------------------------------------------------------- 
     /**
-     * Method to build up the heap using record in the linked list
-     * @throws Exception
-     *         Exception (mostly IOExeption)
+     * Method to build up the heap from the records deferred by the
+     * previous run, which already sit at the front of the heap arrays
      */
-    private void buildHeapFromList() throws Exception {
-        int maxRecords = MAX_BLOCKS * ByteFile.RECORDS_PER_BLOCK;
-        heapArray = new Record[maxRecords]; // Reset heapArray
-        int count = 0;
-
-        ListNode<Record> curr = unsortedList.getHead();
-
-        while (curr != null && count < maxRecords) {
-            Record record = curr.getData();
-            heapArray[count] = record;
-            count++;
-            curr = curr.getNext();
-        }
-        unsortedList.clear();
-
-        this.heap = new MinHeap<>(heapArray, count, maxRecords);
+    private void buildHeapFromDeferred() {
+        // deferred records only pile up during a run, so they peak here
+        stats.deferred(heap.deferredSize());
+        heap.startNextRun();
     }
 
     // ----------------------------------------------------------
@@ -105,72 +531,96 @@ public class ReplacementSelection {
     private void sortHelper() throws Exception {
         runProcessor.flushWriteBuffer();
         int recordCount = 0;
+        int recordsIn = 0;
         
-        // store the starting position of the run
+        // store the starting position and the key range of the run
         long runStartPos = runProcessor.getFilePosition();
+        long firstKey = heap.minKey();
+        long lastKey = firstKey;
+        long checksum = 0;
 
         while ((heap.heapSize() > 0)) {
+            long minKey = heap.minKey();
+            if (pruning && minKey >= keyBound) {
+                // the rest of the heap is past the bound, the deferred
+                // records start the next run
+                heap.discardRun();
+                break;
+            }
             // 1. move the root to output
-            Record minRecord = heap.removeMin();
-            runProcessor.writeRecord(minRecord);
+            long minID = heap.minID();
+            runProcessor.writeRecord(minID, minKey);
+            checksum = SortManifest.checksum(checksum, minID, minKey);
             recordCount++;
-
-            // read the next input record if available
-            Record inRec = null;
-            if (inputProcessor.hasData()) {
-                inRec = inputProcessor.readRecord();
+            lastKey = minKey;
+            if (recordCount == limit) {
+                pruneFrom(minKey);
+            }
+            else if (samples != null && recordCount % sampleStep == 0) {
+                sample(minKey);
             }
 
-            if (inRec != null) {
+            // read the next input record if available
+            if (readNext()) {
+                long inID = source.getRecordID();
+                long inKey = source.getRecordKey();
+                recordsIn++;
                 // compare with the last output record
-                if (inRec.compareTo(minRecord) < 0) {
-                    // if smaller, defer to next run
-                    unsortedList.insertTail(inRec);
+                if (inKey < minKey) {
+                    // if smaller, park it behind the heap for next run
+                    heap.defer(inID, inKey);
                 } 
                 else {
-                    // else, continue with current run
-                    heap.insert(inRec);
+                    // else, it takes the place of the root in this run
+                    heap.replaceMin(inID, inKey);
                 }
             }
+            else {
+                heap.removeMin();
+            }
         }
-        
-        // After all records from input are processed
-        // drain the remaining heap
-        while (heap.heapSize() > 0) {
-            Record remainingRecord = heap.removeMin();
-            runProcessor.writeRecord(remainingRecord);
-            recordCount++;
+
+        stats.compare(recordsIn);
+        if (recordCount == 0) {
+            // the whole heap was past the bound
+            return;
         }
 
         // record each run into the RunRecord object
         RunRecord runRecord = new RunRecord(
                 recordCount,
-                runStartPos);
+                runStartPos,
+                firstKey,
+                lastKey);
+        runRecord.setChecksum(checksum);
 
         runRecordList.insertTail(runRecord);
+        stats.addRun(recordCount);
+        // records left in the heap are not in a run yet, so the runs
+        // cover no more of the input
+        commitRun(runRecord, inputStart);
 
     }
     
-    // ~ Public Method ....................................................
-    //
     // ----------------------------------------------------------
     /**
-     * Control of the sort helper method
+     * Generate the runs on the calling thread
      * @throws Exception
      *         Exception (mostly IOExeption)
      */
-    public void sort() throws Exception {
+    private void sortSerial() throws Exception {
+        heap = new RecordHeap(maxRecords);
         // continue the process until there are no more input
         // or there are no more deferred records
-        while (inputProcessor.hasData() || unsortedList.getSize() > 0) {
+        while (source.hasData() || heap.deferredSize() > 0) {
             // build initial heap if no deferred record
             // but there is input data
-            if (unsortedList.getSize() == 0 && inputProcessor.hasData()) {
+            if (heap.deferredSize() == 0 && source.hasData()) {
                 buildHeap();
             }
-            // build the heap from unsorted record for the next run
+            // build the heap from deferred records for the next run
             else {
-                buildHeapFromList();
+                buildHeapFromDeferred();
             }
             
             // only proceed sorting if there is data in heap
@@ -179,6 +629,443 @@ public class ReplacementSelection {
                 runProcessor.flushWriteBuffer();
             }
         }
+        stats.compare(heap.comparisons());
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Load-sort-store run generation: fill the memory with records,
+     * radix sort them and write them out as one run. Runs are half as
+     * long as the heap, since the sort needs a second pair of arrays,
+     * and a quarter of the average replacement selection run on
+     * random input, but the sort itself is much faster than the heap
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void sortRadix() throws Exception {
+        RadixSorter sorter = new RadixSorter(Math.max(1, maxRecords / 2));
+        while (true) {
+            int count = 0;
+            while (count < sorter.capacity() && readNext()) {
+                sorter.set(count, source.getRecordID(),
+                    source.getRecordKey());
+                count++;
+            }
+            if (count == 0) {
+                return;
+            }
+            sorter.sort(count);
+            int runLength = (int) Math.min(count, limit);
+            if (runLength == limit) {
+                pruneFrom(sorter.key(runLength - 1));
+            }
+            else if (samples != null) {
+                for (int i = sampleStep - 1; i < runLength; i += sampleStep) {
+                    sample(sorter.key(i));
+                }
+            }
+
+            runProcessor.flushWriteBuffer();
+            long runStartPos = runProcessor.getFilePosition();
+            long checksum = 0;
+            for (int i = 0; i < runLength; i++) {
+                runProcessor.writeRecord(sorter.id(i), sorter.key(i));
+                checksum = SortManifest.checksum(checksum,
+                    sorter.id(i), sorter.key(i));
+            }
+            runProcessor.flushWriteBuffer();
+            RunRecord run = new RunRecord(runLength, runStartPos,
+                sorter.key(0), sorter.key(runLength - 1));
+            run.setChecksum(checksum);
+            runRecordList.insertTail(run);
+            stats.addRun(runLength);
+            // every record read so far is in a run or pruned
+            commitRun(run, inputStart + recordsRead * Record.BYTES);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * In-memory sort of an input that fits the budget: read it once,
+     * radix sort it (on several threads if allowed) and write it back
+     * in place, so there are no runs and nothing to merge
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void sortInMemory() throws Exception {
+        int numRecords = (int) (inputProcessor.getEndPos() / Record.BYTES);
+        RadixSorter sorter = new RadixSorter(numRecords);
+        int count = 0;
+        while (count < numRecords && inputProcessor.readNext()) {
+            sorter.set(count, inputProcessor.getRecordID(),
+                inputProcessor.getRecordKey());
+            count++;
+        }
+        sorter.parallelSort(count, threads);
+        count = (int) Math.min(count, limit);
+
+        inputProcessor.setFilePosition(0);
+        RecordWriter output = finalOutput();
+        for (int i = 0; i < count; i++) {
+            output.writeRecord(sorter.id(i), sorter.key(i));
+        }
+        output.flushWriteBuffer();
+        inputProcessor.sync();
+        inputProcessor.setLength((long) count * Record.BYTES);
+        stats.addRun(count);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Top-k selection for a limit that fits the budget: the input is
+     * read once through a max-heap of the limit smallest records so
+     * far (a min-heap of inverted keys), which is drained from the
+     * back into sorted order, so only the limit records are written
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void sortTopK() throws Exception {
+        int capacity = (int) limit;
+        RecordHeap top = new RecordHeap(capacity);
+        while (source.readNext()) {
+            // ~key reverses the order, the root holds the largest key
+            long inverted = ~source.getRecordKey();
+            if (top.heapSize() < capacity) {
+                top.insert(source.getRecordID(), inverted);
+            }
+            else if (inverted > top.minKey()) {
+                top.replaceMin(source.getRecordID(), inverted);
+            }
+        }
+        int count = top.heapSize();
+        long[] ids = new long[count];
+        long[] keys = new long[count];
+        for (int i = count - 1; i >= 0; i--) {
+            ids[i] = top.minID();
+            keys[i] = ~top.minKey();
+            top.removeMin();
+        }
+
+        RecordWriter output = sink;
+        if (sink == null) {
+            inputProcessor.setFilePosition(0);
+            output = finalOutput();
+        }
+        for (int i = 0; i < count; i++) {
+            output.writeRecord(ids[i], keys[i]);
+        }
+        output.flushWriteBuffer();
+        if (sink == null) {
+            inputProcessor.sync();
+            inputProcessor.setLength((long) count * Record.BYTES);
+        }
+        stats.addRun(count);
+        stats.compare(top.comparisons());
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Parallel run generation: the input is split into block aligned
+     * byte ranges, each worker runs its own replacement selection
+     * with an equal share of the memory budget, and the run lists are
+     * collected in range order
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void sortParallel() throws Exception {
+        long endPos = inputProcessor.getEndPos();
+        endPos -= endPos % Record.BYTES;
+        long numBlocks = (endPos + ByteFile.BYTES_PER_BLOCK - 1)
+            / ByteFile.BYTES_PER_BLOCK;
+        // every worker needs a valid budget and at least one block
+        long maxWorkers = budget.getTotalBytes()
+            / (3L * ByteFile.BYTES_PER_BLOCK);
+        int workers = (int) Math.max(1,
+            Math.min(threads, Math.min(numBlocks, maxWorkers)));
+        long blocksPerWorker = (numBlocks + workers - 1) / workers;
+        long workerMemory = budget.getTotalBytes() / workers;
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<ReplacementSelection>> results = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                long start = Math.min(endPos,
+                    i * blocksPerWorker * ByteFile.BYTES_PER_BLOCK);
+                long end = Math.min(endPos,
+                    start + blocksPerWorker * ByteFile.BYTES_PER_BLOCK);
+                results.add(pool.submit(() -> {
+                    ReplacementSelection worker = new ReplacementSelection(
+                        inputFileName, runFileName, options, 
+                        workerMemory, start, end);
+                    try {
+                        worker.sort();
+                    }
+                    finally {
+                        worker.inputProcessor.closeFile();
+                        worker.runProcessor.closeFile();
+                    }
+                    return worker;
+                }));
+            }
+            for (Future<ReplacementSelection> result : results) {
+                ReplacementSelection worker = result.get();
+                stats.add(worker.stats);
+                ListNode<RunRecord> curr = worker.runRecordList.getHead();
+                while (curr != null) {
+                    runRecordList.insertTail(curr.getData());
+                    curr = curr.getNext();
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Merge one group of runs into the given output, up to the limit.
+     * The final merge into the input file commits its progress to the
+     * manifest every checkpoint
+     * @param group
+     *        runs to merge
+     * @param output
+     *        file processor or stream receiving the merged records
+     * @param runPos
+     *        position of the output in the run file, for the run
+     *        returned by an intermediate merge
+     * @param outputRecords
+     *        records the output already holds, from an interrupted
+     *        final merge
+     * @return
+     *        the merged run, with its key range and checksum
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private RunRecord mergeRuns(RunRecord[] group, RecordWriter output,
+        long runPos, long outputRecords) throws Exception {
+        // with async I/O the next block to run dry is read ahead into
+        // one spare buffer, which takes a share of the budget
+        boolean prefetch = options.getAsyncDepth() > 1;
+        int mergeBufferSize = budget.getMergeBufferSize(
+            prefetch ? group.length + 1 : group.length);
+        MergePrefetcher prefetcher = prefetch 
+            ? new MergePrefetcher(group, runFileName,
+                options.getSpillDirs(), mergeBufferSize)
+            : null;
+        try {
+            // load first record in each run
+            for (RunRecord run : group) {
+                run.allocateBuffer(mergeBufferSize);
+                run.setPrefetcher(prefetcher);
+                run.loadNextRecord(runProcessor);
+            }
+            
+            // merge runs
+            RunMerger merger = RunMerger.create(mergeEngine, group);
+            boolean commit = manifest != null && output != runProcessor;
+            long nextCommit = commit ? checkpointRecords : Long.MAX_VALUE;
+            long written = 0;
+            long firstKey = merger.isEmpty() ? 0 : merger.winner().getCurrKey();
+            long lastKey = firstKey;
+            // a resumed final merge goes on from the committed output
+            long checksum = outputRecords > 0 
+                ? manifest.getOutputChecksum() : 0;
+            while (!merger.isEmpty() && outputRecords + written < limit) {
+                RunRecord minRunRecord = merger.winner();
+                lastKey = minRunRecord.getCurrKey();
+                output.writeRecord(minRunRecord.getCurrID(), lastKey);
+                checksum = SortManifest.checksum(checksum,
+                    minRunRecord.getCurrID(), lastKey);
+                written++;
+    
+                // Load next record from the same run 
+                merger.advance(runProcessor);
+                if (written == nextCommit) {
+                    commitOutput(group, outputRecords + written, checksum);
+                    nextCommit += checkpointRecords;
+                }
+            }
+            stats.compare(merger.getComparisons());
+            stats.addMergeStep(group.length);
+            RunRecord merged = new RunRecord(written, runPos, 
+                firstKey, lastKey);
+            merged.setChecksum(checksum);
+            return merged;
+        }
+        finally {
+            if (prefetcher != null) {
+                stats.add(prefetcher.close());
+            }
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Commit the progress of the final merge: the output written so
+     * far is forced to disk, then the manifest records it with the
+     * number of records taken from each run
+     * @param group
+     *        runs of the final merge, in the order of the manifest
+     * @param records
+     *        records in the output
+     * @param checksum
+     *        checksum of the records in the output
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void commitOutput(RunRecord[] group, long records,
+        long checksum) throws Exception {
+        inputProcessor.flushWriteBuffer();
+        inputProcessor.force();
+        RunRecord[] committed = manifest.getRuns();
+        long[] consumed = new long[group.length];
+        for (int i = 0; i < group.length; i++) {
+            // a resumed merge reads the rest of each run as a sub-run
+            consumed[i] = (group[i].getRunPos() - committed[i].getRunPos())
+                / Record.BYTES + group[i].getConsumed();
+        }
+        manifest.commitOutput(records, consumed, checksum);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Build the output by concatenating the runs in key order when
+     * their key ranges do not overlap, as for a single run or for
+     * sorted and nearly sorted input. The bytes are moved with
+     * transferTo, into the input file or the output stream, and no
+     * record is decoded
+     * @param runs
+     *        runs produced by sort() first
+     * @param numRuns
+     *        number of runs
+     * @return
+     *        true if the runs were concatenated, false if they
+     *        overlap and must be merged
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private boolean concatenateRuns(RunRecord[] runs, int numRuns) 
+        throws Exception {
+        RunRecord[] order = Arrays.copyOf(runs, numRuns);
+        Arrays.sort(order, (a, b) -> a.getFirstKey() != b.getFirstKey()
+            ? Long.compare(a.getFirstKey(), b.getFirstKey())
+            : Long.compare(a.getLastKey(), b.getLastKey()));
+        for (int i = 1; i < numRuns; i++) {
+            if (order[i - 1].getLastKey() > order[i].getFirstKey()) {
+                return false;
+            }
+        }
+        // the limit cuts the output short
+        long remaining = limit < Long.MAX_VALUE / Record.BYTES 
+            ? limit * Record.BYTES : Long.MAX_VALUE;
+        if (sink != null) {
+            sink.flushWriteBuffer();
+            for (RunRecord run : order) {
+                remaining -= runProcessor.transferTo(run.getRunPos(), 
+                    Math.min(remaining, run.getRunLength() * Record.BYTES),
+                    sink.getChannel());
+            }
+            stats.addMergeStep(numRuns);
+            return true;
+        }
+        if (manifest != null) {
+            manifest.commitWriting(runs, numRuns);
+        }
+        inputProcessor.setFilePosition(0);
+        long outputPos = 0;
+        for (RunRecord run : order) {
+            long bytes = runProcessor.transferTo(run.getRunPos(), 
+                Math.min(remaining, run.getRunLength() * Record.BYTES), 
+                inputProcessor, outputPos);
+            outputPos += bytes;
+            remaining -= bytes;
+        }
+        inputProcessor.setLength(outputPos);
+        stats.addMergeStep(numRuns);
+        return true;
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Control of the sort helper method
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    public void sort() throws Exception {
+        if (manifest != null && manifest.isGenerated()) {
+            // the runs of the interrupted sort are complete
+            return;
+        }
+        stats.startRunGeneration();
+        if (topK) {
+            sortTopK();
+        }
+        else if (inMemory) {
+            sortInMemory();
+        }
+        else if (threads > 1 && inputStart == 0) {
+            sortParallel();
+        }
+        else if (runEngine.equals(RADIX)) {
+            sortRadix();
+        }
+        else {
+            sortSerial();
+        }
+        // the heap takes most of the budget, which belongs to the merge
+        // buffers from now on; the radix sorter is already out of scope
+        heap = null;
+        if (manifest != null) {
+            runProcessor.force();
+            RunRecord[] runs = listRuns(runRecordList.getSize());
+            manifest.commitRuns(runs, runs.length);
+        }
+        stats.endPhase();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the number of threads generating runs
+     * @param threads
+     *        number of worker threads, 1 for a single thread
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(
+                "thread count must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Select how sort() generates the runs
+     * @param engine
+     *        REPLACEMENT or RADIX
+     */
+    public void setRunEngine(String engine) {
+        if (!engine.equals(REPLACEMENT) && !engine.equals(RADIX)) {
+            throw new IllegalArgumentException(
+                "unknown run engine " + engine);
+        }
+        this.runEngine = engine;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Select the merge engine
+     * @param engine
+     *        RunMerger.HEAP or RunMerger.TREE
+     */
+    public void setMergeEngine(String engine) {
+        if (!engine.equals(RunMerger.HEAP) && !engine.equals(RunMerger.TREE)) {
+            throw new IllegalArgumentException(
+                "unknown merge engine " + engine);
+        }
+        this.mergeEngine = engine;
     }
 
     // ----------------------------------------------------------
@@ -192,51 +1079,191 @@ public class ReplacementSelection {
         int numRuns = runRecordList.getSize();
         // if there are no more runs, then stop merging
         if (numRuns == 0) {
+            deleteManifest();
+            finishIndex();
             return;
         }
         
-        // set input file position to the beginning
-        inputProcessor.setFilePosition(0);
-        
-        
-        // initialize heap for merger
-        MinHeap<RunRecord> mergeHeap = new MinHeap<>(
-            new RunRecord[numRuns], 
-            0, 
-            numRuns);
-        
-        // load first record in each run
-        ListNode<RunRecord> currRunNode = runRecordList.getHead();
+        stats.startMerge();
+        // every run must be on disk before it is read back
+        runProcessor.sync();
+        MergePlan plan = getMergePlan();
+        RunRecord[] runs = listRuns(plan.getRunCount());
+        if (concatenateRuns(runs, numRuns)) {
+            runProcessor.closeFile();
+            deleteManifest();
+            finishIndex();
+            stats.endPhase();
+            return;
+        }
+
+        if (manifest != null && manifest.getOutputRecords() > 0) {
+            resumeFinalMerge();
+        }
+        else {
+            mergeSteps(plan, runs);
+        }
+        if (sink != null) {
+            sink.flushWriteBuffer();
+        }
+        else {
+            inputProcessor.flushWriteBuffer();
+            inputProcessor.sync();
+            long newLength = inputProcessor.getFilePosition();
+            inputProcessor.setLength(newLength);
+            finishIndex();
+        }
+
+        // Close runProcessor if done
+        runProcessor.closeFile();
+        deleteManifest();
+        stats.endPhase();
         
-        while (currRunNode != null) {
-            RunRecord runRecord = currRunNode.getData();
+    }
 
-            if (runRecord.loadNextRecord(runProcessor)) {
-                mergeHeap.insert(runRecord);
+    // ----------------------------------------------------------
+    /**
+     * Run the steps of the merge plan. With a manifest the runs left
+     * are committed after every intermediate step, and in the order
+     * of the final merge before it starts
+     * @param plan
+     *        merge plan
+     * @param runs
+     *        generated runs, with room for the intermediate ones
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void mergeSteps(MergePlan plan, RunRecord[] runs)
+        throws Exception {
+        boolean[] merged = new boolean[runs.length];
+        for (int index = 0; index < plan.getNumSteps(); index++) {
+            MergePlan.Step step = plan.getStep(index);
+            int[] inputs = step.getInputs();
+            RunRecord[] group = new RunRecord[inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                group[i] = runs[inputs[i]];
+                merged[inputs[i]] = true;
+            }
+            if (step.isFinal() && manifest != null) {
+                manifest.commitWriting(group, group.length);
             }
 
-            currRunNode = currRunNode.getNext();
+            if (step.isFinal() && threads > 1 && limit == Long.MAX_VALUE) {
+                // every thread writes its own region of the output
+                inputProcessor.setFilePosition(0);
+                inputProcessor.setLength(step.getLength() * Record.BYTES);
+                new PartitionedMerge(runProcessor, runFileName, 
+                    inputFileName, options, budget, mergeEngine)
+                    .merge(group, threads, stats);
+                stats.addMergeStep(group.length);
+                inputProcessor.setFilePosition(
+                    step.getLength() * Record.BYTES);
+            }
+            else if (step.isFinal() && sink != null) {
+                // the records reach the stream while the merge runs
+                mergeRuns(group, sink, 0, 0);
+            }
+            else if (step.isFinal()) {
+                // set input file position to the beginning
+                inputProcessor.setFilePosition(0);
+                mergeRuns(group, finalOutput(), 0, 0);
+            }
+            else {
+                // intermediate runs are appended to the run file
+                long runStartPos = runProcessor.getEndPos();
+                runProcessor.setFilePosition(runStartPos);
+                runs[step.getOutput()] = mergeRuns(group, runProcessor,
+                    runStartPos, 0);
+                runProcessor.flushWriteBuffer();
+                runProcessor.sync();
+                if (manifest != null) {
+                    runProcessor.force();
+                    RunRecord[] live = new RunRecord[runs.length];
+                    int count = 0;
+                    for (int i = 0; i < runs.length; i++) {
+                        if (runs[i] != null && !merged[i]) {
+                            live[count++] = runs[i];
+                        }
+                    }
+                    manifest.commitRuns(live, count);
+                }
+            }
         }
-        
-        // merge runs
-        while (mergeHeap.heapSize() > 0) {
-            RunRecord minRunRecord = mergeHeap.removeMin();
-            Record minRecord = minRunRecord.getCurrRecord();
-            inputProcessor.writeRecord(minRecord); // Write back to input file
+    }
 
-            // Load next record from the same run 
-            // and re-insert into heap if not exhausted
-            if (minRunRecord.loadNextRecord(runProcessor)) {
-                mergeHeap.insert(minRunRecord);
-            }
+    // ----------------------------------------------------------
+    /**
+     * Pick up an interrupted final merge: the rest of every run is
+     * merged after the output the manifest committed
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void resumeFinalMerge() throws Exception {
+        RunRecord[] committed = manifest.getRuns();
+        long[] consumed = manifest.getConsumed();
+        RunRecord[] group = new RunRecord[committed.length];
+        for (int i = 0; i < group.length; i++) {
+            RunRecord run = committed[i];
+            group[i] = new RunRecord(run.getRunLength() - consumed[i],
+                run.getRunPos() + consumed[i] * Record.BYTES,
+                run.getFirstKey(), run.getLastKey());
         }
-        inputProcessor.flushWriteBuffer();
-        long newLength = inputProcessor.getFilePosition();
-        inputProcessor.getFile().setLength(newLength);
+        long outputRecords = manifest.getOutputRecords();
+        inputProcessor.setFilePosition(outputRecords * Record.BYTES);
+        mergeRuns(group, inputProcessor, 0, outputRecords);
+    }
 
-        // Close runProcessor if done
-        runProcessor.closeFile();
-        
+    // ----------------------------------------------------------
+    /**
+     * Plan the merge of the runs produced by sort(). The fan-in is
+     * capped by the memory budget so every run keeps at least one
+     * block of buffer, extra runs are merged in intermediate steps
+     * @return
+     *         the merge plan, which can be reported before merge()
+     */
+    public MergePlan getMergePlan() {
+        long[] lengths = new long[runRecordList.getSize()];
+        ListNode<RunRecord> currRunNode = runRecordList.getHead();
+        for (int i = 0; currRunNode != null; i++) {
+            lengths[i] = currRunNode.getData().getRunLength();
+            currRunNode = currRunNode.getNext();
+        }
+        // with async I/O every merge reads ahead into a spare buffer
+        return new MergePlan(lengths,
+            budget.getMaxFanIn(options.getAsyncDepth() > 1));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether the input fits the memory budget and is sorted
+     * in memory, without runs or a run file
+     * @return
+     *         true for the in-memory sort
+     */
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether the sort picked up the runs of an interrupted
+     * sort from its manifest
+     * @return
+     *         true for a resumed sort
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the counters and timers of this sort, which can also be
+     * registered as a JMX MBean with SortStats.register()
+     * @return
+     *         sort statistics
+     */
+    public SortStats getStats() {
+        return stats;
     }
 
     // ----------------------------------------------------------
@@ -245,11 +1272,17 @@ public class ReplacementSelection {
      * @throws Exception
      */
     public void writeDataToFile() throws Exception {
+        if (inMemory) {
+            // sort() already wrote the input back, there is no run file
+            return;
+        }
         // close input file
         inputProcessor.closeFile();
         
         // reopen
-        inputProcessor = new ByteFileProcessor(inputFileName, "rw");
+        inputProcessor = ByteFileProcessor.open(inputFileName, "rw",
+            budget.getIOBufferSize(), options.getIOBackend());
+        inputProcessor.enableAsync(options.getAsyncDepth());
         
         // set position to the beginning for both processor
         inputProcessor.setFilePosition(0);
@@ -259,17 +1292,18 @@ public class ReplacementSelection {
         runProcessor.getReadBuffer().clear();
         runProcessor.getReadBuffer().limit(0);
         
-        Record record;
-        while ((record = runProcessor.readRecord()) != null) {
-            inputProcessor.writeRecord(record);
+        while (runProcessor.readNext()) {
+            inputProcessor.writeRecord(runProcessor.getRecordID(),
+                runProcessor.getRecordKey());
         }
 
         // Flush the write buffer to ensure all data is written
         inputProcessor.flushWriteBuffer();
+        inputProcessor.sync();
         
         // Truncate the input file to the new length if necessary
         long newLength = inputProcessor.getFilePosition();
-        inputProcessor.getFile().setLength(newLength);
+        inputProcessor.setLength(newLength);
 
     }
     
@@ -295,25 +1329,40 @@ public class ReplacementSelection {
         long fileSize = channel.size();
         int blockCount = (int) (fileSize / ByteFile.BYTES_PER_BLOCK);
 
+        // the sparse index already holds the first record of every
+        // block, the file is only read without one
+        SparseIndex index = options.isIndex()
+            ? new SparseIndex(inputFileName)
+            : null;
+
         // iterate over each block, reading only the first record of each block
         for (int i = 0; i < blockCount; i++) {
-            // move the channel position to the start of the block
-            channel.position(i * ByteFile.BYTES_PER_BLOCK);
+            long id;
+            double key;
+            if (index != null) {
+                Record first = index.getFirstRecord(i);
+                id = first.getID();
+                key = first.getKey();
+            }
+            else {
+                // move the channel position to the start of the block
+                channel.position(i * ByteFile.BYTES_PER_BLOCK);
 
-            // read one record (16 bytes) from the current block
-            buffer.clear();
-            int bytesRead = channel.read(buffer);
+                // read one record (16 bytes) from the current block
+                buffer.clear();
+                int bytesRead = channel.read(buffer);
 
-            // if read in full record then break loop
-            if (bytesRead < Record.BYTES) {
-                break;
-            }
+                // if read in full record then break loop
+                if (bytesRead < Record.BYTES) {
+                    break;
+                }
 
-            // prepare buffer to read the record data
-            buffer.flip();
+                // prepare buffer to read the record data
+                buffer.flip();
 
-            long id = buffer.getLong();
-            double key = buffer.getDouble();
+                id = buffer.getLong();
+                key = buffer.getDouble();
+            }
 
             System.out.print(id + " " + key);
             count++;
@@ -326,6 +1375,9 @@ public class ReplacementSelection {
                 System.out.print(" ");
             }
         }
+        if (index != null) {
+            index.close();
+        }
 
         // print a newline if the last line is incomplete
         if (count % 5 != 0) {
@@ -333,4 +1385,29 @@ public class ReplacementSelection {
         }
     }
 
+    // ----------------------------------------------------------
+    /**
+     * Method to close the input and run files, the temporary run
+     * file of a stream sort is deleted, and so are the stripes of a
+     * run file spilled to several directories unless a manifest still
+     * needs them to resume the sort
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    public void close() throws Exception {
+        if (inputProcessor != null) {
+            inputProcessor.closeFile();
+        }
+        if (runProcessor != null) {
+            runProcessor.closeFile();
+        }
+        if (runFileName != null && manifest == null) {
+            StripedChannel.delete(runFileName, options.getSpillDirs());
+        }
+        if (tempRunFile != null) {
+            tempRunFile.delete();
+        }
+        stats.unregister();
+    }
+
 }
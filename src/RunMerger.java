@@ -0,0 +1,72 @@
+/**
+ * The interface of a k-way merge engine. An engine orders the runs
+ * by their current record and hands out the run holding the smallest
+ * one; every run must have its first record loaded beforehand
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public interface RunMerger {
+    /**
+     * name of the binary heap engine
+     */
+    String HEAP = "heap";
+    /**
+     * name of the loser tree engine
+     */
+    String TREE = "tree";
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether every run is exhausted
+     * @return
+     *         true if there is nothing left to merge
+     */
+    boolean isEmpty();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the run holding the smallest current record
+     * @return
+     *         winning run
+     */
+    RunRecord winner();
+
+    // ----------------------------------------------------------
+    /**
+     * Load the next record of the winning run and restore the order
+     * @param runFile
+     *        run file processor
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    void advance(ByteFileProcessor runFile) throws Exception;
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of key comparisons made so far
+     * @return
+     *         comparisons
+     */
+    long getComparisons();
+
+    // ----------------------------------------------------------
+    /**
+     * Create a merge engine by name
+     * @param engine
+     *        HEAP or TREE
+     * @param runs
+     *        runs to merge, with their first record loaded
+     * @return
+     *        merge engine
+     */
+    static RunMerger create(String engine, RunRecord[] runs) {
+        if (engine.equals(TREE)) {
+            return new LoserTree(runs);
+        }
+        if (engine.equals(HEAP)) {
+            return new HeapMerger(runs);
+        }
+        throw new IllegalArgumentException("unknown merge engine " + engine);
+    }
+}
@@ -1,5 +1,13 @@
+import java.nio.ByteBuffer;
+
 /**
  * The class to record run file's information
+ * Each run owns a block buffer during the merge, so records are
+ * decoded from memory and the run file is only read when it runs dry
+ * The first and last keys of a run tell whether its key range
+ * overlaps another run; a run created without them overlaps all
+ * With a MergePrefetcher the next block may already have been read
+ * in the background when the buffer runs dry
  * 
  * @author Guann-Luen Chen
  * @version 2024.11.04
@@ -8,10 +16,18 @@ public class RunRecord implements Comparable<RunRecord> {
     // ~ Fields ....................................................
     //
     // ----------------------------------------------------------
-    private int runLength;
+    private long runLength;
+    private long remaining;
     private long runPos;
+    private long firstKey = Long.MIN_VALUE;
+    private long lastKey = Long.MAX_VALUE;
+    private long checksum;
     private long currPos;
-    private Record currRecord;
+    private long currID;
+    private long currKey;
+    private boolean exhausted;
+    private ByteBuffer buffer;
+    private MergePrefetcher prefetcher;
 
     
     // ~ Constructors ..............................................
@@ -24,12 +40,32 @@ public class RunRecord implements Comparable<RunRecord> {
      * @param position
      *        the position of the record in the run
      */
-    public RunRecord(int length, long position) {
+    public RunRecord(long length, long position) {
         runLength = length;
+        remaining = length;
         runPos = position;
         currPos = position;
     }
-    
+
+    // ----------------------------------------------------------
+    /**
+     * Initiate RunRecord object with the key range of the run
+     * @param length
+     *        the length of the run
+     * @param position
+     *        the position of the record in the run
+     * @param firstKey
+     *        normalized key of the first record
+     * @param lastKey
+     *        normalized key of the last record
+     */
+    public RunRecord(long length, long position, 
+        long firstKey, long lastKey) {
+        this(length, position);
+        this.firstKey = firstKey;
+        this.lastKey = lastKey;
+    }
+
     // ~ Public Method ....................................................
     //
     // ----------------------------------------------------------
@@ -46,7 +82,7 @@ public class RunRecord implements Comparable<RunRecord> {
     /**
      * get length of the run
      * @return
-     *         length of the run
+     *         number of records in the run
      */
     public long getRunLength() {
         return this.runLength;
@@ -54,14 +90,162 @@ public class RunRecord implements Comparable<RunRecord> {
     
     // ----------------------------------------------------------
     /**
-     * get current record in the run
+     * get key of the first record of the run
      * @return
-     *         current record
+     *         normalized first key, Long.MIN_VALUE if unknown
      */
-    public Record getCurrRecord() {
-        return this.currRecord;
+    public long getFirstKey() {
+        return this.firstKey;
     }
-    
+
+    // ----------------------------------------------------------
+    /**
+     * get key of the last record of the run
+     * @return
+     *         normalized last key, Long.MAX_VALUE if unknown
+     */
+    public long getLastKey() {
+        return this.lastKey;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * get checksum of the records of the run
+     * @return
+     *         checksum, see SortManifest.checksum()
+     */
+    public long getChecksum() {
+        return this.checksum;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * set checksum of the records of the run
+     * @param checksum
+     *        checksum, see SortManifest.checksum()
+     */
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * get number of records of the run already merged, the current
+     * record is not merged yet
+     * @return
+     *         records taken from the run
+     */
+    public long getConsumed() {
+        return runLength - remaining - (exhausted ? 0 : 1);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * get id of the current record in the run
+     * @return
+     *         current record id
+     */
+    public long getCurrID() {
+        return this.currID;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * get key of the current record in the run
+     * @return
+     *         current record key, normalized
+     */
+    public long getCurrKey() {
+        return this.currKey;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * check whether every record of the run has been consumed
+     * @return
+     *         true if there is no current record
+     */
+    public boolean isExhausted() {
+        return this.exhausted;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Allocate the read buffer used by this run during the merge
+     * @param bufferSize
+     *        size of the buffer in bytes (rounded down to whole records)
+     */
+    public void allocateBuffer(int bufferSize) {
+        int size = Math.max(Record.BYTES, 
+            bufferSize - bufferSize % Record.BYTES);
+        buffer = ByteBuffer.allocate(size);
+        buffer.limit(0);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Let the buffer be refilled by the given prefetcher when it
+     * holds the next block of this run
+     * @param prefetcher
+     *        prefetcher shared by the runs of one merge
+     */
+    public void setPrefetcher(MergePrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * check whether some of the run is still on disk
+     * @return
+     *         true if the run has blocks left to read
+     */
+    public boolean hasMoreBlocks() {
+        return currPos < runPos + runLength * Record.BYTES;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * get key of the last record in the buffer. The run whose buffer
+     * ends with the smallest key is the next one to run dry
+     * @return
+     *         normalized key, Long.MIN_VALUE if the buffer is empty
+     */
+    public long getLastBufferedKey() {
+        if (buffer == null || buffer.limit() < Record.BYTES) {
+            return Long.MIN_VALUE;
+        }
+        return Record.normalize(buffer.getLong(buffer.limit() - Long.BYTES));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Read the block of this run that follows the buffer, without
+     * changing the state of the run, so it can be done in the
+     * background
+     * @param inputFile
+     *        run file processor
+     * @param target
+     *        buffer receiving the block, flipped for reading
+     * @return
+     *        number of bytes available in the target
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public int readNextBlock(ByteFileProcessor inputFile, ByteBuffer target)
+        throws Exception {
+        target.clear();
+        // never read past the end of this run
+        long runBytes = runPos + runLength * Record.BYTES - currPos;
+        if (runBytes < target.capacity()) {
+            target.limit((int) runBytes);
+        }
+        int bytesRead = inputFile.readBlock(target, currPos);
+        target.flip();
+        // drop a trailing partial record, it will be read next time
+        target.limit(Math.max(0, bytesRead - bytesRead % Record.BYTES));
+        return target.limit();
+    }
+
     // ----------------------------------------------------------
     /**
      * load the next record
@@ -74,35 +258,62 @@ public class RunRecord implements Comparable<RunRecord> {
      */
     public boolean loadNextRecord(ByteFileProcessor inputFile) 
         throws Exception {
-        if (runLength > 0) {
-            inputFile.setFilePosition(currPos);
-            currRecord = inputFile.readRecord();
-            if (currRecord != null) {
-                runLength--;
-                currPos += Record.BYTES;
+        if (remaining > 0) {
+            if (buffer == null) {
+                allocateBuffer(ByteFile.BYTES_PER_BLOCK);
+            }
+            // refill the buffer only when it runs dry
+            if (buffer.remaining() >= Record.BYTES || fillBuffer(inputFile)) {
+                currID = buffer.getLong();
+                currKey = Record.normalize(buffer.getLong());
+                remaining--;
                 return true;
             }
         }
-        currRecord = null;
+        exhausted = true;
         return false;
     }
 
+    // ----------------------------------------------------------
+    /**
+     * Refill the buffer with the next block of this run, taken from
+     * the prefetcher if it was read ahead, then forecast the next
+     * block to read ahead
+     * @param inputFile
+     *        run file processor
+     * @return
+     *        true if at least one record was read
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private boolean fillBuffer(ByteFileProcessor inputFile) 
+        throws Exception {
+        ByteBuffer block = prefetcher == null 
+            ? null : prefetcher.take(this, buffer);
+        if (block != null) {
+            buffer = block;
+        }
+        else {
+            readNextBlock(inputFile, buffer);
+        }
+        currPos += buffer.limit();
+        if (prefetcher != null) {
+            prefetcher.forecast();
+        }
+        return buffer.limit() >= Record.BYTES;
+    }
+
     // ----------------------------------------------------------
     /**
      * Override method of compreTo
      */
     @Override
     public int compareTo(RunRecord o) {
-        if (this.currRecord == null && o.currRecord == null) {
-            return 0;
-        }
-        if (this.currRecord == null) {
-            return 1;
-        }
-        if (o.currRecord == null) {
-            return -1;
+        if (this.exhausted || o.exhausted) {
+            // an exhausted run sorts after every other run
+            return Boolean.compare(this.exhausted, o.exhausted);
         }
-        return this.currRecord.compareTo(o.currRecord);
+        return Long.compare(this.currKey, o.currKey);
     }
 
 }
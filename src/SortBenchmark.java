@@ -0,0 +1,498 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Benchmark harness for the heaps, the file processor and the sort.
+ * Every input is generated from a fixed seed, each benchmark runs
+ * warm-up iterations before the measured ones, and the results are
+ * written as CSV so runs can be compared to catch regressions.
+ * 
+ * Usage: java SortBenchmark [--sizes 1m,64m,1g] 
+ *     [--distributions uniform,sorted,...] [--memory size] 
+ *     [--warmup n] [--iterations n] [--seed n] [--dir path] 
+ *     [--out file.csv]
+ * 
+ * Benchmarks: heap-minheap and heap-recordheap (insert, then
+ * removeMin of every record), heap-build (buildHeap, i.e. siftDown
+ * from every internal node), io-read and io-write (ByteFileProcessor
+ * throughput), rungen (ReplacementSelection.sort), rungen-radix
+ * (the same with load-sort-store radix runs), merge
+ * (ReplacementSelection.merge of the runs) and sort (both phases).
+ * The sort benchmarks turn off the in-memory sort, so inputs that fit
+ * the budget are still measured through runs and a merge. Without
+ * --memory every input gets a budget of a sixteenth of its size, so
+ * the merge benchmarks merge several runs at every size.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class SortBenchmark {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * key distributions of the generated inputs
+     */
+    public static final String[] DISTRIBUTIONS = {
+        "uniform", "sorted", "reverse", "duplicates", "gaussian"};
+
+    // heap benchmarks are capped at this many records
+    private static final int MAX_HEAP_RECORDS = 1 << 22;
+    // without --memory the budget is this fraction of the input
+    private static final int INPUT_PER_BUDGET = 16;
+
+    private long[] sizes = {1L << 20, 16L << 20};
+    private String[] distributions = DISTRIBUTIONS;
+    // 0 derives the budget from the size of each input
+    private long memory = 0;
+    private int warmup = 2;
+    private int iterations = 5;
+    private long seed = 42;
+    private File dir = new File(".");
+    private PrintStream out = System.out;
+    // results are folded in here so the JIT cannot drop the work
+    private long sink;
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Run the benchmarks
+     * @param args
+     *        command line options, see the class comment
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public static void main(String[] args) throws Exception {
+        SortBenchmark benchmark = new SortBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            String value = args[++i];
+            if (arg.equals("--sizes")) {
+                String[] parts = value.split(",");
+                benchmark.sizes = new long[parts.length];
+                for (int j = 0; j < parts.length; j++) {
+                    benchmark.sizes[j] = MemoryBudget.parseSize(parts[j]);
+                }
+            }
+            else if (arg.equals("--distributions")) {
+                benchmark.distributions = value.split(",");
+            }
+            else if (arg.equals("--memory")) {
+                benchmark.memory = MemoryBudget.parseSize(value);
+            }
+            else if (arg.equals("--warmup")) {
+                benchmark.warmup = Integer.parseInt(value);
+            }
+            else if (arg.equals("--iterations")) {
+                benchmark.iterations = Integer.parseInt(value);
+            }
+            else if (arg.equals("--seed")) {
+                benchmark.seed = Long.parseLong(value);
+            }
+            else if (arg.equals("--dir")) {
+                benchmark.dir = new File(value);
+            }
+            else if (arg.equals("--out")) {
+                benchmark.out = new PrintStream(new FileOutputStream(value));
+            }
+            else {
+                throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        benchmark.run();
+        benchmark.out.flush();
+        System.err.println("checksum " + benchmark.sink);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Run every benchmark for every size and distribution
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void run() throws Exception {
+        System.err.println("java " + System.getProperty("java.version")
+            + ", " + Runtime.getRuntime().availableProcessors() 
+            + " cpus, memory budget " + (memory > 0 ? memory 
+            : "1/" + INPUT_PER_BUDGET + " of the input"));
+        out.println("benchmark,size_bytes,distribution,iterations,"
+            + "mean_ms,min_ms,max_ms,stddev_ms,mb_per_s");
+        File input = new File(dir, "bench_input.bin");
+        File work = new File(dir, "bench_work.bin");
+        File runs = new File(dir, "bench_runs.bin");
+        try {
+            for (long size : sizes) {
+                long records = size / Record.BYTES;
+                for (String distribution : distributions) {
+                    generate(input, records, distribution);
+                    runAll(input, work, runs, records, distribution);
+                }
+            }
+        }
+        finally {
+            input.delete();
+            work.delete();
+            runs.delete();
+        }
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Run each benchmark on one generated input
+     * @param input
+     *        generated input file
+     * @param work
+     *        scratch copy of the input
+     * @param runs
+     *        run file
+     * @param records
+     *        number of records in the input
+     * @param distribution
+     *        key distribution of the input
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private void runAll(File input, File work, File runs, long records,
+        String distribution) throws Exception {
+        long bytes = records * Record.BYTES;
+        int heapRecords = (int) Math.min(records, MAX_HEAP_RECORDS);
+        long[] ids = new long[heapRecords];
+        long[] keys = new long[heapRecords];
+        loadKeys(input, ids, keys);
+
+        measure("heap-minheap", bytes, distribution, 
+            (long) heapRecords * Record.BYTES, () -> {
+                Record[] array = new Record[heapRecords];
+                MinHeap<Record> heap = new MinHeap<>(array, 0, heapRecords);
+                for (int i = 0; i < heapRecords; i++) {
+                    heap.insert(new Record(ids[i], 
+                        Double.longBitsToDouble(Record.denormalize(keys[i]))));
+                }
+                while (heap.heapSize() > 0) {
+                    sink += heap.removeMin().getID();
+                }
+            });
+        measure("heap-recordheap", bytes, distribution,
+            (long) heapRecords * Record.BYTES, () -> {
+                RecordHeap heap = new RecordHeap(heapRecords);
+                for (int i = 0; i < heapRecords; i++) {
+                    heap.insert(ids[i], keys[i]);
+                }
+                while (heap.heapSize() > 0) {
+                    sink += heap.minID();
+                    heap.removeMin();
+                }
+            });
+        measure("heap-build", bytes, distribution,
+            (long) heapRecords * Record.BYTES, () -> {
+                RecordHeap heap = new RecordHeap(heapRecords);
+                for (int i = 0; i < heapRecords; i++) {
+                    heap.set(i, ids[i], keys[i]);
+                }
+                heap.setHeapSize(heapRecords);
+                heap.buildHeap();
+                sink += heap.minID();
+            });
+        int bufferSize = new MemoryBudget(budget(bytes)).getIOBufferSize();
+        measure("io-read", bytes, distribution, bytes, () -> {
+            ByteFileProcessor processor = new ByteFileProcessor(
+                input.getPath(), "r", bufferSize);
+            long checksum = 0;
+            while (processor.readNext()) {
+                checksum += processor.getRecordKey();
+            }
+            processor.closeFile();
+            sink += checksum;
+        });
+        measure("io-write", bytes, distribution, bytes, () -> {
+            work.delete();
+            ByteFileProcessor processor = new ByteFileProcessor(
+                work.getPath(), "rw", bufferSize);
+            for (long i = 0; i < records; i++) {
+                processor.writeRecord(i, i);
+            }
+            processor.closeFile();
+        });
+        measure("rungen", bytes, distribution, bytes, () -> {
+            copy(input, work);
+            ReplacementSelection rs = new ReplacementSelection(
+                work.getPath(), runs.getPath(),
+                externalOptions(ReplacementSelection.REPLACEMENT, bytes));
+            long start = System.nanoTime();
+            rs.sort();
+            long elapsed = System.nanoTime() - start;
+            rs.close();
+            return elapsed;
+        });
+        measure("rungen-radix", bytes, distribution, bytes, () -> {
+            copy(input, work);
+            ReplacementSelection rs = new ReplacementSelection(
+                work.getPath(), runs.getPath(),
+                externalOptions(ReplacementSelection.RADIX, bytes));
+            long start = System.nanoTime();
+            rs.sort();
+            long elapsed = System.nanoTime() - start;
+            rs.close();
+            return elapsed;
+        });
+        measure("merge", bytes, distribution, bytes, () -> {
+            copy(input, work);
+            ReplacementSelection rs = new ReplacementSelection(
+                work.getPath(), runs.getPath(),
+                externalOptions(ReplacementSelection.REPLACEMENT, bytes));
+            rs.sort();
+            long start = System.nanoTime();
+            rs.merge();
+            long elapsed = System.nanoTime() - start;
+            rs.close();
+            return elapsed;
+        });
+        measure("sort", bytes, distribution, bytes, () -> {
+            copy(input, work);
+            ReplacementSelection rs = new ReplacementSelection(
+                work.getPath(), runs.getPath(),
+                externalOptions(ReplacementSelection.REPLACEMENT, bytes));
+            long start = System.nanoTime();
+            rs.sort();
+            rs.merge();
+            long elapsed = System.nanoTime() - start;
+            rs.close();
+            return elapsed;
+        });
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Measure a benchmark whose whole body is timed
+     * @param name
+     *        benchmark name
+     * @param size
+     *        input size in bytes
+     * @param distribution
+     *        key distribution
+     * @param processed
+     *        bytes processed by one iteration, for the throughput
+     * @param body
+     *        benchmark body
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private void measure(String name, long size, String distribution,
+        long processed, Body body) throws Exception {
+        measure(name, size, distribution, processed, () -> {
+            long start = System.nanoTime();
+            body.run();
+            return System.nanoTime() - start;
+        });
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Measure a benchmark that times itself, so setup is excluded,
+     * and print one CSV row
+     * @param name
+     *        benchmark name
+     * @param size
+     *        input size in bytes
+     * @param distribution
+     *        key distribution
+     * @param processed
+     *        bytes processed by one iteration, for the throughput
+     * @param body
+     *        benchmark body returning its elapsed nanoseconds
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private void measure(String name, long size, String distribution,
+        long processed, TimedBody body) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            body.run();
+        }
+        double[] millis = new double[iterations];
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int i = 0; i < iterations; i++) {
+            millis[i] = body.run() / 1e6;
+            sum += millis[i];
+            min = Math.min(min, millis[i]);
+            max = Math.max(max, millis[i]);
+        }
+        double mean = sum / iterations;
+        double variance = 0;
+        for (double m : millis) {
+            variance += (m - mean) * (m - mean);
+        }
+        double stddev = Math.sqrt(variance / Math.max(1, iterations - 1));
+        double throughput = processed / (double) (1 << 20) / (mean / 1000);
+        out.printf("%s,%d,%s,%d,%.3f,%.3f,%.3f,%.3f,%.1f%n", name, size,
+            distribution, iterations, mean, min, max, stddev, throughput);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Write a file of records with the given key distribution
+     * @param file
+     *        file to write
+     * @param records
+     *        number of records
+     * @param distribution
+     *        one of DISTRIBUTIONS
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private void generate(File file, long records, String distribution)
+        throws Exception {
+        Random rng = new Random(seed);
+        file.delete();
+        ByteFileProcessor processor = new ByteFileProcessor(
+            file.getPath(), "rw", 1 << 20);
+        for (long i = 0; i < records; i++) {
+            double key;
+            if (distribution.equals("uniform")) {
+                key = rng.nextDouble();
+            }
+            else if (distribution.equals("sorted")) {
+                key = (double) i / records;
+            }
+            else if (distribution.equals("reverse")) {
+                key = (double) (records - i) / records;
+            }
+            else if (distribution.equals("duplicates")) {
+                key = rng.nextInt(16);
+            }
+            else if (distribution.equals("gaussian")) {
+                key = rng.nextGaussian();
+            }
+            else {
+                throw new IllegalArgumentException(
+                    "unknown distribution " + distribution);
+            }
+            processor.writeRecord(rng.nextLong(), 
+                Record.normalize(Double.doubleToRawLongBits(key)));
+        }
+        processor.closeFile();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Read the first records of a file into arrays
+     * @param file
+     *        file to read
+     * @param ids
+     *        record ids
+     * @param keys
+     *        normalized record keys
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private void loadKeys(File file, long[] ids, long[] keys) 
+        throws Exception {
+        ByteFileProcessor processor = new ByteFileProcessor(
+            file.getPath(), "r", 1 << 20);
+        for (int i = 0; i < ids.length && processor.readNext(); i++) {
+            ids[i] = processor.getRecordID();
+            keys[i] = processor.getRecordKey();
+        }
+        processor.closeFile();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Memory budget of the benchmarks of one input: the --memory
+     * budget, or a sixteenth of the input, but at least the smallest
+     * valid budget
+     * @param bytes
+     *        size of the input
+     * @return
+     *        budget in bytes
+     */
+    private long budget(long bytes) {
+        if (memory > 0) {
+            return memory;
+        }
+        return Math.max(3L * ByteFile.BYTES_PER_BLOCK,
+            bytes / INPUT_PER_BUDGET);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Options of the sort benchmarks: the memory budget of the
+     * input, and runs and a merge even for inputs that fit it
+     * @param runEngine
+     *        REPLACEMENT or RADIX
+     * @param bytes
+     *        size of the input
+     * @return
+     *        sort options
+     */
+    private SortOptions externalOptions(String runEngine, long bytes) {
+        SortOptions options = new SortOptions();
+        options.setMemory(budget(bytes));
+        options.setRunEngine(runEngine);
+        options.setExternal(true);
+        return options;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Copy a file, replacing the target
+     * @param from
+     *        source file
+     * @param to
+     *        target file
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private void copy(File from, File to) throws Exception {
+        to.delete();
+        try (FileChannel source = new RandomAccessFile(
+                from, "r").getChannel();
+            FileChannel target = new RandomAccessFile(
+                to, "rw").getChannel()) {
+            long position = 0;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, 
+                    size - position, target);
+            }
+        }
+    }
+
+    // ~ Inner Interface ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * A benchmark body timed as a whole
+     */
+    private interface Body {
+        /**
+         * Run the body once
+         * @throws Exception
+         *         Exception (mostly IOException)
+         */
+        void run() throws Exception;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * A benchmark body that returns its own elapsed time
+     */
+    private interface TimedBody {
+        /**
+         * Run the body once
+         * @return
+         *         elapsed nanoseconds
+         * @throws Exception
+         *         Exception (mostly IOException)
+         */
+        long run() throws Exception;
+    }
+}
@@ -0,0 +1,415 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * The durable progress of a sort, kept next to the run file so that a
+ * sort that dies can be restarted without redoing the work already on
+ * disk. It lists the live runs (position, length, key range and
+ * checksum), how much of the input they cover, whether run
+ * generation is finished, and how far the final merge has written the
+ * output and consumed each run. It also names the input by its
+ * canonical path, length and modification time, and once the output
+ * is being written over the input, by the checksum of the committed
+ * output, so that a different file in the same place is not resumed.
+ * Every commit writes a new copy and renames it over the old one, so
+ * a crash leaves either the old or the new manifest; the caller
+ * forces the files it describes first.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class SortManifest {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private static final int MAGIC = 0x45534D46;
+    private static final int VERSION = 2;
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+    private static final int VERIFY_BUFFER = 1 << 16;
+
+    private File file;
+    private String inputPath;
+    private long inputLength;
+    // modification time of the input before the sort wrote to it
+    private long inputModified;
+    // bytes at the front of the input whose records are all in the
+    // first coveredRuns runs
+    private long inputCovered;
+    private int coveredRuns;
+    private boolean generated;
+    // the final merge or concatenation writes over the input
+    private boolean writing;
+    private RunRecord[] runs = new RunRecord[0];
+    // records of the final merge already in the output
+    private long outputRecords;
+    // checksum of those records
+    private long outputChecksum;
+    // records of each run already merged into the output
+    private long[] consumed = new long[0];
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Start an empty manifest, nothing is written before the first
+     * commit
+     * @param fileName
+     *        manifest file name
+     * @param input
+     *        input file, whose path, length and modification time a
+     *        resumed sort must match
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    SortManifest(String fileName, File input) throws Exception {
+        this.file = new File(fileName);
+        this.inputPath = input.getCanonicalPath();
+        this.inputLength = input.length();
+        this.inputModified = input.lastModified();
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Read the manifest left by an earlier sort of the same input and
+     * check every run against its checksum. Until the output is
+     * written over the input, the input must also keep its
+     * modification time; after that, its front must match the
+     * checksum of the committed output
+     * @param fileName
+     *        manifest file name
+     * @param input
+     *        input file
+     * @param inputFile
+     *        processor of the input file
+     * @param runFile
+     *        processor of the run file
+     * @return
+     *        the manifest, or null if there is none, it belongs to
+     *        another input or a run does not match its checksum
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public static SortManifest load(String fileName, File input,
+        ByteFileProcessor inputFile, ByteFileProcessor runFile)
+        throws Exception {
+        SortManifest manifest = new SortManifest(fileName, input);
+        if (!manifest.file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(manifest.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || !in.readUTF().equals(manifest.inputPath)
+                || in.readLong() != manifest.inputLength) {
+                return null;
+            }
+            long modified = in.readLong();
+            manifest.inputCovered = in.readLong();
+            manifest.coveredRuns = in.readInt();
+            manifest.generated = in.readBoolean();
+            manifest.writing = in.readBoolean();
+            manifest.outputRecords = in.readLong();
+            manifest.outputChecksum = in.readLong();
+            if (!manifest.writing && modified != manifest.inputModified) {
+                return null;
+            }
+            manifest.inputModified = modified;
+            int count = in.readInt();
+            manifest.runs = new RunRecord[count];
+            manifest.consumed = new long[count];
+            for (int i = 0; i < count; i++) {
+                RunRecord run = new RunRecord(in.readLong(), in.readLong(),
+                    in.readLong(), in.readLong());
+                run.setChecksum(in.readLong());
+                manifest.runs[i] = run;
+                manifest.consumed[i] = in.readLong();
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+        if (!manifest.generated) {
+            // runs past the covered input hold records that will be
+            // read again
+            manifest.runs = Arrays.copyOf(manifest.runs,
+                manifest.coveredRuns);
+            manifest.consumed = new long[manifest.coveredRuns];
+        }
+        RunRecord output = new RunRecord(manifest.outputRecords, 0, 0, 0);
+        output.setChecksum(manifest.outputChecksum);
+        if (manifest.writing 
+            && checksum(inputFile, output) != output.getChecksum()) {
+            return null;
+        }
+        for (RunRecord run : manifest.runs) {
+            if (checksum(runFile, run) != run.getChecksum()) {
+                return null;
+            }
+        }
+        return manifest;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Fold one record into the checksum of a run
+     * @param sum
+     *        checksum of the records before it, 0 for the first
+     * @param id
+     *        record id
+     * @param key
+     *        normalized record key
+     * @return
+     *        checksum including the record
+     */
+    public static long checksum(long sum, long id, long key) {
+        return ((sum ^ id) * MIX ^ key) * MIX;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Commit a run that was just generated
+     * @param run
+     *        the run, with its checksum
+     * @param covered
+     *        bytes at the front of the input whose records are all in
+     *        the committed runs; when it does not grow, as while
+     *        replacement selection still holds records in its heap,
+     *        the run is not resumed before run generation finishes
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void addRun(RunRecord run, long covered) throws Exception {
+        RunRecord[] more = new RunRecord[runs.length + 1];
+        System.arraycopy(runs, 0, more, 0, runs.length);
+        more[runs.length] = run;
+        runs = more;
+        consumed = new long[runs.length];
+        if (covered != inputCovered) {
+            inputCovered = covered;
+            coveredRuns = runs.length;
+        }
+        commit();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Commit the runs left to merge once run generation is finished
+     * or a merge step has replaced some of them by its output
+     * @param live
+     *        runs left to merge, in the order of the final merge once
+     *        it starts
+     * @param count
+     *        number of runs
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void commitRuns(RunRecord[] live, int count) throws Exception {
+        runs = new RunRecord[count];
+        System.arraycopy(live, 0, runs, 0, count);
+        consumed = new long[count];
+        inputCovered = inputLength;
+        coveredRuns = count;
+        generated = true;
+        outputRecords = 0;
+        outputChecksum = 0;
+        commit();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Commit the runs of the final merge or concatenation before it
+     * starts writing over the input, whose modification time then no
+     * longer identifies it
+     * @param live
+     *        runs left to merge, in the order of the final merge
+     * @param count
+     *        number of runs
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void commitWriting(RunRecord[] live, int count)
+        throws Exception {
+        writing = true;
+        commitRuns(live, count);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Commit the progress of the final merge
+     * @param records
+     *        records in the output so far
+     * @param runConsumed
+     *        records of each run merged so far, in the order of the
+     *        runs of the last commitWriting()
+     * @param checksum
+     *        checksum of the records in the output
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void commitOutput(long records, long[] runConsumed,
+        long checksum) throws Exception {
+        outputRecords = records;
+        consumed = runConsumed;
+        outputChecksum = checksum;
+        commit();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Remove the manifest once the sort is complete
+     */
+    public void delete() {
+        file.delete();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether run generation was finished
+     * @return
+     *         true if every input record is in a run
+     */
+    public boolean isGenerated() {
+        return generated;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get how much of the input the runs cover
+     * @return
+     *         bytes at the front of the input
+     */
+    public long getInputCovered() {
+        return inputCovered;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the live runs
+     * @return
+     *         runs left to merge
+     */
+    public RunRecord[] getRuns() {
+        return runs;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of records the final merge committed
+     * @return
+     *         records in the output, 0 before the final merge
+     */
+    public long getOutputRecords() {
+        return outputRecords;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the checksum of the records the final merge committed
+     * @return
+     *         checksum of the output, 0 before the final merge
+     */
+    public long getOutputChecksum() {
+        return outputChecksum;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the records of each run the final merge committed
+     * @return
+     *         records merged, one count per live run
+     */
+    public long[] getConsumed() {
+        return consumed;
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Write the manifest to a new file, force it to disk and rename
+     * it over the old one
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private void commit() throws Exception {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(inputPath);
+            out.writeLong(inputLength);
+            out.writeLong(inputModified);
+            out.writeLong(inputCovered);
+            out.writeInt(coveredRuns);
+            out.writeBoolean(generated);
+            out.writeBoolean(writing);
+            out.writeLong(outputRecords);
+            out.writeLong(outputChecksum);
+            out.writeInt(runs.length);
+            for (int i = 0; i < runs.length; i++) {
+                out.writeLong(runs[i].getRunLength());
+                out.writeLong(runs[i].getRunPos());
+                out.writeLong(runs[i].getFirstKey());
+                out.writeLong(runs[i].getLastKey());
+                out.writeLong(runs[i].getChecksum());
+                out.writeLong(consumed[i]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Compute the checksum of a run from the run file, or of the
+     * output from the front of the input
+     * @param runFile
+     *        processor of the file holding the records
+     * @param run
+     *        run to check
+     * @return
+     *        checksum of its records
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private static long checksum(ByteFileProcessor runFile, RunRecord run)
+        throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(VERIFY_BUFFER);
+        long position = run.getRunPos();
+        long end = position + run.getRunLength() * Record.BYTES;
+        long sum = 0;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(VERIFY_BUFFER, end - position));
+            int bytesRead = runFile.readBlock(buffer, position);
+            if (bytesRead < Record.BYTES) {
+                // the run is cut short, the checksum cannot match
+                return ~run.getChecksum();
+            }
+            buffer.flip();
+            while (buffer.remaining() >= Record.BYTES) {
+                sum = checksum(sum, buffer.getLong(),
+                    Record.normalize(buffer.getLong()));
+            }
+            position += bytesRead - bytesRead % Record.BYTES;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,556 @@
+import java.io.File;
+
+/**
+ * The class to hold the command line options of the sort
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class SortOptions {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private String inputFile;
+    private long memory;
+    private String mergeEngine;
+    private String runEngine;
+    private boolean showPlan;
+    private boolean showStats;
+    private int threads;
+    private int asyncDepth;
+    private String ioBackend;
+    private String tempDir;
+    private String[] spillDirs;
+    private long limit;
+    private long checkpointBytes;
+    private boolean index;
+    private boolean external;
+    private int width;
+    private int keyOffset;
+    private String keyType;
+    private int keyLength;
+    private String byteOrder;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Create options with the default values
+     */
+    public SortOptions() {
+        this.memory = MemoryBudget.DEFAULT_BYTES;
+        this.mergeEngine = RunMerger.HEAP;
+        this.runEngine = ReplacementSelection.REPLACEMENT;
+        this.threads = 1;
+        this.asyncDepth = 1;
+        this.ioBackend = ByteFileProcessor.BUFFERED;
+        this.tempDir = System.getProperty("java.io.tmpdir");
+        this.spillDirs = new String[0];
+        this.limit = Long.MAX_VALUE;
+        this.width = Record.BYTES;
+        this.keyOffset = Long.BYTES;
+        this.keyType = RecordLayout.FLOAT64;
+        this.keyLength = Long.BYTES;
+        this.byteOrder = RecordLayout.BIG;
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Parse command line arguments of the form
+     * [--memory size] [--runs replacement|radix] [--merge heap|tree]
+     * [--plan] [--threads n]
+     * [--async depth] [--io buffered|mmap] [--temp dir]
+     * [--spill dir,dir,...] [--limit n]
+     * [--checkpoint size] [--index] [--external] [--width bytes]
+     * [--key int32|int64|float64|string] [--key-offset n]
+     * [--key-length n] [--order big|little] [--stats] filename,
+     * where a filename of - sorts standard input to standard output
+     * @param args
+     *        command line arguments
+     * @return
+     *        parsed options
+     */
+    public static SortOptions parse(String[] args) {
+        SortOptions options = new SortOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--memory")) {
+                options.setMemory(MemoryBudget.parseSize(
+                    value(args, ++i, arg)));
+            }
+            else if (arg.equals("--runs")) {
+                options.setRunEngine(value(args, ++i, arg));
+            }
+            else if (arg.equals("--merge")) {
+                options.setMergeEngine(value(args, ++i, arg));
+            }
+            else if (arg.equals("--threads")) {
+                options.setThreads(Integer.parseInt(value(args, ++i, arg)));
+            }
+            else if (arg.equals("--async")) {
+                options.setAsyncDepth(
+                    Integer.parseInt(value(args, ++i, arg)));
+            }
+            else if (arg.equals("--io")) {
+                options.setIOBackend(value(args, ++i, arg));
+            }
+            else if (arg.equals("--temp")) {
+                options.setTempDir(value(args, ++i, arg));
+            }
+            else if (arg.equals("--spill")) {
+                options.setSpillDirs(value(args, ++i, arg).split(","));
+            }
+            else if (arg.equals("--limit")) {
+                options.setLimit(Long.parseLong(value(args, ++i, arg)));
+            }
+            else if (arg.equals("--checkpoint")) {
+                options.setCheckpointBytes(MemoryBudget.parseSize(
+                    value(args, ++i, arg)));
+            }
+            else if (arg.equals("--plan")) {
+                options.setShowPlan(true);
+            }
+            else if (arg.equals("--stats")) {
+                options.setShowStats(true);
+            }
+            else if (arg.equals("--index")) {
+                options.setIndex(true);
+            }
+            else if (arg.equals("--external")) {
+                options.setExternal(true);
+            }
+            else if (arg.equals("--width")) {
+                options.setWidth(Integer.parseInt(value(args, ++i, arg)));
+            }
+            else if (arg.equals("--key")) {
+                options.setKeyType(value(args, ++i, arg));
+            }
+            else if (arg.equals("--key-offset")) {
+                options.setKeyOffset(
+                    Integer.parseInt(value(args, ++i, arg)));
+            }
+            else if (arg.equals("--key-length")) {
+                options.setKeyLength(
+                    Integer.parseInt(value(args, ++i, arg)));
+            }
+            else if (arg.equals("--order")) {
+                options.setByteOrder(value(args, ++i, arg));
+            }
+            else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException(
+                    "unknown option " + arg);
+            }
+            else {
+                options.inputFile = arg;
+            }
+        }
+        if (options.inputFile == null) {
+            throw new IllegalArgumentException("missing input file");
+        }
+        return options;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the input file name
+     * @return
+     *         input file name
+     */
+    public String getInputFile() {
+        return inputFile;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the memory budget in bytes
+     * @return
+     *         memory budget
+     */
+    public long getMemory() {
+        return memory;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the memory budget in bytes
+     * @param memory
+     *        memory budget
+     */
+    public void setMemory(long memory) {
+        this.memory = memory;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the run generation engine name
+     * @return
+     *         ReplacementSelection.REPLACEMENT or RADIX
+     */
+    public String getRunEngine() {
+        return runEngine;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the run generation engine name
+     * @param runEngine
+     *        ReplacementSelection.REPLACEMENT or RADIX
+     */
+    public void setRunEngine(String runEngine) {
+        this.runEngine = runEngine;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the merge engine name
+     * @return
+     *         RunMerger.HEAP or RunMerger.TREE
+     */
+    public String getMergeEngine() {
+        return mergeEngine;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the merge engine name
+     * @param mergeEngine
+     *        RunMerger.HEAP or RunMerger.TREE
+     */
+    public void setMergeEngine(String mergeEngine) {
+        this.mergeEngine = mergeEngine;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether the merge plan is reported before merging
+     * @return
+     *         true to print the merge plan
+     */
+    public boolean isShowPlan() {
+        return showPlan;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set whether the merge plan is reported before merging
+     * @param showPlan
+     *        true to print the merge plan
+     */
+    public void setShowPlan(boolean showPlan) {
+        this.showPlan = showPlan;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether the sort statistics are reported at the end
+     * @return
+     *         true to print the statistics
+     */
+    public boolean isShowStats() {
+        return showStats;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set whether the sort statistics are reported at the end
+     * @param showStats
+     *        true to print the statistics
+     */
+    public void setShowStats(boolean showStats) {
+        this.showStats = showStats;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of run generation threads
+     * @return
+     *         number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the number of run generation threads
+     * @param threads
+     *        number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of buffers per direction for asynchronous I/O
+     * @return
+     *         queue depth, 1 for synchronous I/O
+     */
+    public int getAsyncDepth() {
+        return asyncDepth;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the number of buffers per direction for asynchronous I/O
+     * @param asyncDepth
+     *        queue depth, 1 for synchronous I/O
+     */
+    public void setAsyncDepth(int asyncDepth) {
+        this.asyncDepth = asyncDepth;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the I/O backend name
+     * @return
+     *         ByteFileProcessor.BUFFERED or ByteFileProcessor.MAPPED
+     */
+    public String getIOBackend() {
+        return ioBackend;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the I/O backend name
+     * @param ioBackend
+     *        ByteFileProcessor.BUFFERED or ByteFileProcessor.MAPPED
+     */
+    public void setIOBackend(String ioBackend) {
+        this.ioBackend = ioBackend;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the directory of the temporary run file of a stream sort
+     * @return
+     *         directory name
+     */
+    public String getTempDir() {
+        return tempDir;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the directory of the temporary run file of a stream sort
+     * @param tempDir
+     *        directory name
+     */
+    public void setTempDir(String tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the directories the run file is striped over
+     * @return
+     *         directory names, none when the run file is a plain file
+     */
+    public String[] getSpillDirs() {
+        return spillDirs;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Stripe the run file over several directories, one per device,
+     * so that writing the runs and reading them back in the merge
+     * use every device at once (see StripedChannel)
+     * @param spillDirs
+     *        existing directories, none for a plain run file
+     */
+    public void setSpillDirs(String[] spillDirs) {
+        for (String dir : spillDirs) {
+            if (!new File(dir).isDirectory()) {
+                throw new IllegalArgumentException(
+                    "no spill directory " + dir);
+            }
+        }
+        this.spillDirs = spillDirs;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of smallest records to keep
+     * @return
+     *         record count, Long.MAX_VALUE to keep every record
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the number of smallest records to keep, the output holds
+     * only the first limit records of the sorted input
+     * @param limit
+     *        record count, Long.MAX_VALUE to keep every record
+     */
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the output written by the final merge between two
+     * checkpoints
+     * @return
+     *         bytes, 0 when the sort keeps no manifest
+     */
+    public long getCheckpointBytes() {
+        return checkpointBytes;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Keep a manifest of the runs and the merge progress next to the
+     * run file, so that a sort that dies can be resumed by running it
+     * again, and commit the final merge every so many bytes
+     * @param checkpointBytes
+     *        bytes, 0 when the sort keeps no manifest
+     */
+    public void setCheckpointBytes(long checkpointBytes) {
+        this.checkpointBytes = checkpointBytes;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether a sparse index of the output is written
+     * @return
+     *         true to write the index
+     */
+    public boolean isIndex() {
+        return index;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set whether the sort writes a sparse index of its output file,
+     * the first record of every block, next to it (see SparseIndex)
+     * @param index
+     *        true to write the index
+     */
+    public void setIndex(boolean index) {
+        this.index = index;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether an input that fits the budget still goes through
+     * runs and a merge
+     * @return
+     *         true to skip the in-memory sort
+     */
+    public boolean isExternal() {
+        return external;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set whether an input that fits the budget is still sorted
+     * through runs and a merge rather than in memory, so that both
+     * phases can be measured on small inputs
+     * @param external
+     *        true to skip the in-memory sort
+     */
+    public void setExternal(boolean external) {
+        this.external = external;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the record width
+     * @return
+     *         bytes per record
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the record width. Records wider than Record.BYTES carry a
+     * payload after the id and the key and are tag sorted (see
+     * TagSort)
+     * @param width
+     *        bytes per record
+     */
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the position of the key in a record
+     * @param keyOffset
+     *        key offset in bytes
+     */
+    public void setKeyOffset(int keyOffset) {
+        this.keyOffset = keyOffset;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the key type
+     * @param keyType
+     *        one of the RecordLayout key types
+     */
+    public void setKeyType(String keyType) {
+        this.keyType = keyType;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the size of a string key
+     * @param keyLength
+     *        key length in bytes
+     */
+    public void setKeyLength(int keyLength) {
+        this.keyLength = keyLength;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the byte order of the key
+     * @param byteOrder
+     *        RecordLayout.BIG or RecordLayout.LITTLE
+     */
+    public void setByteOrder(String byteOrder) {
+        this.byteOrder = byteOrder;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the layout of the records, from the width and the key
+     * options
+     * @return
+     *         record layout
+     */
+    public RecordLayout getLayout() {
+        return RecordLayout.create(width, keyOffset, keyType, keyLength,
+            byteOrder);
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Get the value following an option
+     * @param args
+     *        command line arguments
+     * @param i
+     *        index of the value
+     * @param option
+     *        option name, for the error message
+     * @return
+     *        the value
+     */
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(
+                "missing value for " + option);
+        }
+        return args[i];
+    }
+}
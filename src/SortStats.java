@@ -0,0 +1,399 @@
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The class to collect counters and timers of one sort. I/O is
+ * charged to the phase in progress (run generation or merge) and is
+ * counted per buffer, not per record, so collecting costs next to
+ * nothing. The totals can be printed with report() or watched through
+ * JMX after register(); JMX reads are not synchronized and give a
+ * snapshot for monitoring.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class SortStats implements SortStatsMBean {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private Counters runGeneration = new Counters();
+    private Counters merge = new Counters();
+    // phase receiving the I/O, run generation until the merge starts
+    private Counters current = runGeneration;
+    private long phaseStart;
+
+    private long runs;
+    private long minRunLength = Long.MAX_VALUE;
+    private long maxRunLength;
+    private long totalRunLength;
+    private long deferredPeak;
+    private long mergeSteps;
+    private long mergeFanIn;
+
+    private ObjectName objectName;
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Start timing run generation, I/O is charged to it from now on
+     */
+    public void startRunGeneration() {
+        start(runGeneration);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Start timing the merge, I/O is charged to it from now on
+     */
+    public void startMerge() {
+        start(merge);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Stop the timer of the phase in progress
+     */
+    public void endPhase() {
+        if (phaseStart != 0) {
+            current.nanos += System.nanoTime() - phaseStart;
+            phaseStart = 0;
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count one read call
+     * @param bytes
+     *        number of bytes it returned
+     */
+    public void read(long bytes) {
+        current.bytesRead += Math.max(0, bytes);
+        current.ioCalls++;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count one write call
+     * @param bytes
+     *        number of bytes it wrote
+     */
+    public void write(long bytes) {
+        current.bytesWritten += bytes;
+        current.ioCalls++;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count bytes moved without a call of their own, as through a
+     * memory mapping
+     * @param read
+     *        bytes read
+     * @param written
+     *        bytes written
+     */
+    public void transfer(long read, long written) {
+        current.bytesRead += read;
+        current.bytesWritten += written;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count one I/O call that moved no bytes by itself, such as
+     * mapping a chunk of a file
+     */
+    public void call() {
+        current.ioCalls++;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count one seek
+     */
+    public void seek() {
+        current.seeks++;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count key comparisons
+     * @param count
+     *        number of comparisons
+     */
+    public void compare(long count) {
+        current.comparisons += count;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count one generated run
+     * @param length
+     *        run length in records
+     */
+    public void addRun(long length) {
+        runs++;
+        totalRunLength += length;
+        minRunLength = Math.min(minRunLength, length);
+        maxRunLength = Math.max(maxRunLength, length);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Note the number of records deferred to the next run
+     * @param deferred
+     *        records waiting for the next run
+     */
+    public void deferred(long deferred) {
+        deferredPeak = Math.max(deferredPeak, deferred);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Count one merge step
+     * @param fanIn
+     *        number of runs merged
+     */
+    public void addMergeStep(int fanIn) {
+        mergeSteps++;
+        mergeFanIn = Math.max(mergeFanIn, fanIn);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Add the counters of a worker, its phase timers are left out
+     * since the workers run side by side
+     * @param other
+     *        counters of the worker
+     */
+    public void add(SortStats other) {
+        runGeneration.add(other.runGeneration);
+        merge.add(other.merge);
+        runs += other.runs;
+        totalRunLength += other.totalRunLength;
+        minRunLength = Math.min(minRunLength, other.minRunLength);
+        maxRunLength = Math.max(maxRunLength, other.maxRunLength);
+        deferredPeak = Math.max(deferredPeak, other.deferredPeak);
+        mergeSteps += other.mergeSteps;
+        mergeFanIn = Math.max(mergeFanIn, other.mergeFanIn);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Register the counters with the platform MBean server
+     * @param name
+     *        name distinguishing this sort from others in the process
+     * @throws Exception
+     *         Exception (mostly JMException)
+     */
+    public void register(String name) throws Exception {
+        unregister();
+        ObjectName newName = new ObjectName(
+            "Externalsort:type=SortStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer()
+            .registerMBean(this, newName);
+        objectName = newName;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Remove the counters from the platform MBean server, if they
+     * were registered
+     * @throws Exception
+     *         Exception (mostly JMException)
+     */
+    public void unregister() throws Exception {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Describe the counters of both phases
+     * @return
+     *         multi-line report
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %12s %12s%n",
+            "Sort statistics", "runs", "merge"));
+        row(sb, "time (ms)",
+            runGeneration.nanos / 1000000, merge.nanos / 1000000);
+        row(sb, "records read", runGeneration.bytesRead / Record.BYTES,
+            merge.bytesRead / Record.BYTES);
+        row(sb, "records written", runGeneration.bytesWritten / Record.BYTES,
+            merge.bytesWritten / Record.BYTES);
+        row(sb, "bytes read", runGeneration.bytesRead, merge.bytesRead);
+        row(sb, "bytes written",
+            runGeneration.bytesWritten, merge.bytesWritten);
+        row(sb, "I/O calls", runGeneration.ioCalls, merge.ioCalls);
+        row(sb, "seeks", runGeneration.seeks, merge.seeks);
+        row(sb, "comparisons", runGeneration.comparisons, merge.comparisons);
+        sb.append(String.format(
+            "runs: %d, length min/avg/max: %d/%.1f/%d records%n",
+            runs, getMinRunLength(), getAvgRunLength(), maxRunLength));
+        sb.append(String.format("deferred peak: %d records%n",
+            deferredPeak));
+        sb.append(String.format("merge steps: %d, max fan-in: %d",
+            mergeSteps, mergeFanIn));
+        return sb.toString();
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getRunGenerationMillis() {
+        return runGeneration.nanos / 1000000;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getMergeMillis() {
+        return merge.nanos / 1000000;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getRecordsRead() {
+        return getBytesRead() / Record.BYTES;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getRecordsWritten() {
+        return getBytesWritten() / Record.BYTES;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getBytesRead() {
+        return runGeneration.bytesRead + merge.bytesRead;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getBytesWritten() {
+        return runGeneration.bytesWritten + merge.bytesWritten;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getIOCalls() {
+        return runGeneration.ioCalls + merge.ioCalls;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getSeeks() {
+        return runGeneration.seeks + merge.seeks;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getComparisons() {
+        return runGeneration.comparisons + merge.comparisons;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getRuns() {
+        return runs;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getMinRunLength() {
+        return runs == 0 ? 0 : minRunLength;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public double getAvgRunLength() {
+        return runs == 0 ? 0 : (double) totalRunLength / runs;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getMaxRunLength() {
+        return maxRunLength;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getDeferredPeak() {
+        return deferredPeak;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getMergeSteps() {
+        return mergeSteps;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long getMergeFanIn() {
+        return mergeFanIn;
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Make the given phase the current one and start its timer
+     * @param phase
+     *        counters of the phase
+     */
+    private void start(Counters phase) {
+        current = phase;
+        phaseStart = System.nanoTime();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Append one line of the report
+     * @param sb
+     *        report
+     * @param label
+     *        counter name
+     * @param runValue
+     *        value during run generation
+     * @param mergeValue
+     *        value during the merge
+     */
+    private static void row(StringBuilder sb, String label,
+        long runValue, long mergeValue) {
+        sb.append(String.format("%-16s %12d %12d%n",
+            label, runValue, mergeValue));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * The counters of one phase
+     */
+    private static class Counters {
+        private long nanos;
+        private long bytesRead;
+        private long bytesWritten;
+        private long ioCalls;
+        private long seeks;
+        private long comparisons;
+
+        /**
+         * Add the counters of another phase, except its time
+         * @param other
+         *        counters to add
+         */
+        private void add(Counters other) {
+            bytesRead += other.bytesRead;
+            bytesWritten += other.bytesWritten;
+            ioCalls += other.ioCalls;
+            seeks += other.seeks;
+            comparisons += other.comparisons;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * The management interface of SortStats, so that an application
+ * embedding the sort can watch it through JMX
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public interface SortStatsMBean {
+
+    // ----------------------------------------------------------
+    /**
+     * Get the wall time of run generation
+     * @return
+     *         milliseconds
+     */
+    long getRunGenerationMillis();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the wall time of the merge
+     * @return
+     *         milliseconds
+     */
+    long getMergeMillis();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of records read in both phases
+     * @return
+     *         records read
+     */
+    long getRecordsRead();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of records written in both phases
+     * @return
+     *         records written
+     */
+    long getRecordsWritten();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of bytes read in both phases
+     * @return
+     *         bytes read
+     */
+    long getBytesRead();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of bytes written in both phases
+     * @return
+     *         bytes written
+     */
+    long getBytesWritten();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of read and write calls issued to the file
+     * channels (mapping calls for the mmap backend)
+     * @return
+     *         I/O calls
+     */
+    long getIOCalls();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of seeks
+     * @return
+     *         seeks
+     */
+    long getSeeks();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of key comparisons in both phases
+     * @return
+     *         comparisons
+     */
+    long getComparisons();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of runs generated
+     * @return
+     *         runs
+     */
+    long getRuns();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the length of the shortest run
+     * @return
+     *         records, 0 if there are no runs
+     */
+    long getMinRunLength();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the average run length
+     * @return
+     *         records, 0 if there are no runs
+     */
+    double getAvgRunLength();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the length of the longest run
+     * @return
+     *         records
+     */
+    long getMaxRunLength();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the largest number of records deferred to a next run
+     * @return
+     *         records
+     */
+    long getDeferredPeak();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of merge steps
+     * @return
+     *         merge steps, including the final one
+     */
+    long getMergeSteps();
+
+    // ----------------------------------------------------------
+    /**
+     * Get the largest number of runs merged in one step
+     * @return
+     *         merge fan-in
+     */
+    long getMergeFanIn();
+}
@@ -0,0 +1,313 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A sparse index over a sorted output: the first record of every
+ * block, kept in a sidecar file (see SparseIndexWriter) and held in
+ * memory. A key is found by binary searching the first keys, which
+ * leaves a single block to read; a range scan reads only the blocks
+ * that hold the range. The last block read is kept, so a lookup
+ * followed by a scan from the same key reads it once.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class SparseIndex {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * the sidecar file name is the output file name with this suffix
+     */
+    public static final String SUFFIX = ".idx";
+    /**
+     * last word of the sidecar
+     */
+    static final int MAGIC = 0x45534958;
+    // record count, records per block and magic
+    private static final int TRAILER = Long.BYTES + 2 * Integer.BYTES;
+
+    private long[] ids;
+    // normalized first key of every block
+    private long[] keys;
+    private long recordCount;
+    private int blockRecords;
+
+    private ByteFileProcessor data;
+    private ByteBuffer block;
+    private long cachedBlock = -1;
+    private int blockReads;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Load the index of a sorted file
+     * @param dataFileName
+     *        sorted file name, its sidecar must exist
+     * @throws Exception
+     *         Exception (mostly IOException), also when the sidecar
+     *         does not describe the file
+     */
+    public SparseIndex(String dataFileName) throws Exception {
+        File sidecar = new File(dataFileName + SUFFIX);
+        int numBlocks = (int) ((sidecar.length() - TRAILER) / Record.BYTES);
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(sidecar)))) {
+            ids = new long[numBlocks];
+            keys = new long[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                ids[i] = in.readLong();
+                keys[i] = Record.normalize(in.readLong());
+            }
+            recordCount = in.readLong();
+            blockRecords = in.readInt();
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not an index: " + sidecar);
+            }
+        }
+        data = new ByteFileProcessor(dataFileName, "r", Record.BYTES);
+        if (recordCount * Record.BYTES != data.getEndPos()
+            || numBlocks != (recordCount + blockRecords - 1) / blockRecords) {
+            data.closeFile();
+            throw new IOException("stale index: " + sidecar);
+        }
+        block = ByteBuffer.allocate(blockRecords * Record.BYTES);
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Find the first record whose key is not below the given key.
+     * Reads at most one block
+     * @param key
+     *        record key
+     * @return
+     *        index of the record in the file, or the record count if
+     *        every key is below it
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public long lowerBound(double key) throws Exception {
+        long target = Record.normalize(Double.doubleToRawLongBits(key));
+        // blocks starting below the key, the record is in the last
+        // one of them or starts the next block
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < target) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return 0;
+        }
+        long first = (long) (low - 1) * blockRecords;
+        int count = loadBlock(low - 1);
+        for (int i = 1; i < count; i++) {
+            if (keyAt(i) >= target) {
+                return first + i;
+            }
+        }
+        return first + count;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Look up a record by key
+     * @param key
+     *        record key
+     * @return
+     *        the first record with the key, or null if there is none
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public Record find(double key) throws Exception {
+        long index = lowerBound(key);
+        if (index == recordCount || keyOf(index)
+            != Record.normalize(Double.doubleToRawLongBits(key))) {
+            return null;
+        }
+        return new Record(idAt(index), key);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Scan the records with keys from one key up to, not including,
+     * another, in sorted order. Only the blocks holding them are read
+     * @param from
+     *        smallest key of the range
+     * @param to
+     *        key above the range
+     * @return
+     *        reader of the records in the range
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public RecordReader scan(double from, double to) throws Exception {
+        long start = lowerBound(from);
+        long end = Record.normalize(Double.doubleToRawLongBits(to));
+        return new RecordReader() {
+            private long next = start;
+            private long id;
+            private long key;
+
+            @Override
+            public boolean readNext() throws Exception {
+                if (!hasData()) {
+                    return false;
+                }
+                id = idAt(next);
+                key = keyOf(next);
+                next++;
+                return true;
+            }
+
+            @Override
+            public long getRecordID() {
+                return id;
+            }
+
+            @Override
+            public long getRecordKey() {
+                return key;
+            }
+
+            @Override
+            public boolean hasData() throws Exception {
+                return next < recordCount && keyOf(next) < end;
+            }
+        };
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the first record of a block, straight from the index
+     * @param index
+     *        block number
+     * @return
+     *        the first record of the block
+     */
+    public Record getFirstRecord(int index) {
+        return new Record(ids[index],
+            Double.longBitsToDouble(Record.denormalize(keys[index])));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of blocks of the file, the last one may be
+     * partial
+     * @return
+     *         number of index entries
+     */
+    public int getBlockCount() {
+        return keys.length;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of records of the file
+     * @return
+     *         record count
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of blocks read from the file so far
+     * @return
+     *         block reads
+     */
+    public int getBlockReads() {
+        return blockReads;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Close the sorted file
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void close() throws Exception {
+        data.closeFile();
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Read a block into the block buffer, unless it is already there
+     * @param index
+     *        block number
+     * @return
+     *        number of records in the block
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private int loadBlock(int index) throws Exception {
+        long first = (long) index * blockRecords;
+        int count = (int) Math.min(blockRecords, recordCount - first);
+        if (cachedBlock != index) {
+            block.clear();
+            block.limit(count * Record.BYTES);
+            data.readBlock(block, first * Record.BYTES);
+            cachedBlock = index;
+            blockReads++;
+        }
+        return count;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the normalized key of a record of the block buffer
+     * @param slot
+     *        record index in the block
+     * @return
+     *        normalized key
+     */
+    private long keyAt(int slot) {
+        return Record.normalize(
+            block.getLong(slot * Record.BYTES + Long.BYTES));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the key of a record of the file, reading its block if needed
+     * @param index
+     *        record index in the file
+     * @return
+     *        normalized key
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private long keyOf(long index) throws Exception {
+        loadBlock((int) (index / blockRecords));
+        return keyAt((int) (index % blockRecords));
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the id of a record of the file, reading its block if needed
+     * @param index
+     *        record index in the file
+     * @return
+     *        record id
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    private long idAt(long index) throws Exception {
+        loadBlock((int) (index / blockRecords));
+        return block.getLong((int) (index % blockRecords) * Record.BYTES);
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A RecordWriter that passes the records of a sorted output on and
+ * keeps the first record of every block in a sidecar file, the
+ * sparse index read by SparseIndex. The sidecar holds one record per
+ * block in the record format of the output, followed by the number
+ * of records, the records per block and a magic number.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class SparseIndexWriter implements RecordWriter {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    private RecordWriter output;
+    private DataOutputStream index;
+    private long records;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Start the sidecar of an output file
+     * @param dataFileName
+     *        output file name, the sidecar is named after it
+     * @param output
+     *        writer of the output, null when the index is built from
+     *        an output that is already written
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    SparseIndexWriter(String dataFileName, RecordWriter output)
+        throws Exception {
+        this.output = output;
+        this.index = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(dataFileName + SparseIndex.SUFFIX)));
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Build the sidecar of a sorted file that was written without an
+     * index writer, by reading only the first record of every block
+     * @param dataFileName
+     *        sorted file name
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public static void build(String dataFileName) throws Exception {
+        SparseIndexWriter writer = new SparseIndexWriter(dataFileName,
+            null);
+        ByteFileProcessor data = new ByteFileProcessor(dataFileName, "r",
+            Record.BYTES);
+        try {
+            ByteBuffer probe = ByteBuffer.allocate(Record.BYTES);
+            long length = data.getEndPos() - data.getEndPos() % Record.BYTES;
+            for (long position = 0; position < length;
+                position += ByteFile.BYTES_PER_BLOCK) {
+                probe.clear();
+                data.readBlock(probe, position);
+                writer.index.writeLong(probe.getLong(0));
+                writer.index.writeLong(probe.getLong(Long.BYTES));
+            }
+            writer.records = length / Record.BYTES;
+        }
+        finally {
+            data.closeFile();
+            writer.close();
+        }
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void writeRecord(long id, long key) throws Exception {
+        if (records % ByteFile.RECORDS_PER_BLOCK == 0) {
+            index.writeLong(id);
+            index.writeLong(Record.denormalize(key));
+        }
+        records++;
+        output.writeRecord(id, key);
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void flushWriteBuffer() throws Exception {
+        output.flushWriteBuffer();
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Write the trailer and close the sidecar
+     * @throws Exception
+     *         Exception (mostly IOException)
+     */
+    public void close() throws Exception {
+        index.writeLong(records);
+        index.writeInt(ByteFile.RECORDS_PER_BLOCK);
+        index.writeInt(SparseIndex.MAGIC);
+        index.close();
+    }
+}
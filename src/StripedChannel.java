@@ -0,0 +1,518 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A file striped over several spill directories, one file per
+ * directory, so that the runs spread over every device. The logical
+ * file is cut into stripes of STRIPE_BYTES placed round-robin: stripe
+ * s lives in file s % n. A read or write that spans stripes on
+ * several devices is split and issued to the devices in parallel,
+ * each device on a thread of its own, so a merge buffer refill or a
+ * run buffer flush keeps every device busy. Positions are logical,
+ * so everything built on the single run file (run positions,
+ * parallel workers writing their ranges in place, transferTo,
+ * checkpoints) works unchanged. Bytes inside the logical length that
+ * were never written read as zeros, as in a sparse file.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+class StripedChannel extends FileChannel {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * bytes of one stripe
+     */
+    public static final int STRIPE_BYTES = 8 * ByteFile.BYTES_PER_BLOCK;
+    // threads issuing the pieces of a request to the devices
+    private static final ExecutorService DEVICES =
+        Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "striped-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private RandomAccessFile[] files;
+    private FileChannel[] channels;
+    private long position;
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Open the stripe files of a logical file
+     * @param files
+     *        one open file per spill directory
+     */
+    private StripedChannel(RandomAccessFile[] files) {
+        this.files = files;
+        this.channels = new FileChannel[files.length];
+        for (int i = 0; i < files.length; i++) {
+            channels[i] = files[i].getChannel();
+        }
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Open a file striped over the spill directories
+     * @param fileName
+     *        logical file name, its last component names the stripe
+     *        files
+     * @param mode
+     *        "r" or "rw"
+     * @param spillDirs
+     *        directories holding one stripe file each
+     * @return
+     *        the striped channel
+     * @throws IOException
+     *         if a stripe file cannot be opened
+     */
+    public static StripedChannel open(String fileName, String mode,
+        String[] spillDirs) throws IOException {
+        RandomAccessFile[] files = new RandomAccessFile[spillDirs.length];
+        try {
+            for (int i = 0; i < files.length; i++) {
+                files[i] = new RandomAccessFile(
+                    stripeFile(fileName, spillDirs, i), mode);
+            }
+        }
+        catch (IOException e) {
+            for (RandomAccessFile file : files) {
+                if (file != null) {
+                    file.close();
+                }
+            }
+            throw e;
+        }
+        return new StripedChannel(files);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Delete the stripe files of a logical file
+     * @param fileName
+     *        logical file name
+     * @param spillDirs
+     *        directories holding the stripe files
+     */
+    public static void delete(String fileName, String[] spillDirs) {
+        for (int i = 0; i < spillDirs.length; i++) {
+            stripeFile(fileName, spillDirs, i).delete();
+        }
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public int read(ByteBuffer dst, long at) throws IOException {
+        int start = dst.position();
+        int length = dst.remaining();
+        boolean complete = true;
+        long[][] pieces = split(dst, at, false);
+        for (long[] piece : pieces) {
+            complete &= piece[2] == piece[1];
+        }
+        int total = length;
+        if (!complete) {
+            // a short piece is either the end of the file or a hole
+            long available = Math.min(length, size() - at);
+            if (available <= 0) {
+                return -1;
+            }
+            for (long[] piece : pieces) {
+                long end = Math.min(piece[0] + piece[1], start + available);
+                for (long i = piece[0] + piece[2]; i < end; i++) {
+                    dst.put((int) i, (byte) 0);
+                }
+            }
+            total = (int) available;
+        }
+        dst.position(start + total);
+        return total;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public int write(ByteBuffer src, long at) throws IOException {
+        int length = src.remaining();
+        split(src, at, true);
+        src.position(src.position() + length);
+        return length;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int bytesRead = read(dst, position);
+        if (bytesRead > 0) {
+            position += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length)
+        throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int bytesRead = read(dsts[i]);
+            if (bytesRead < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += bytesRead;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int bytesWritten = write(src, position);
+        position += bytesWritten;
+        return bytesWritten;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+        throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long position() {
+        return position;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public FileChannel position(long newPosition) {
+        this.position = newPosition;
+        return this;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long size() throws IOException {
+        long size = 0;
+        for (int d = 0; d < channels.length; d++) {
+            long length = channels[d].size();
+            if (length > 0) {
+                // the last stripe of the file sets the logical end
+                long stripe = (length - 1) / STRIPE_BYTES;
+                long end = (stripe * channels.length + d) * STRIPE_BYTES
+                    + length - stripe * STRIPE_BYTES;
+                size = Math.max(size, end);
+            }
+        }
+        return size;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+        for (int d = 0; d < channels.length; d++) {
+            long share = share(d, size);
+            if (channels[d].size() > share) {
+                channels[d].truncate(share);
+            }
+        }
+        position = Math.min(position, size);
+        return this;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Set the logical length, truncating or extending every stripe
+     * file to its share
+     * @param length
+     *        new logical length
+     * @throws IOException
+     *         if a stripe file cannot be resized
+     */
+    public void setLength(long length) throws IOException {
+        for (int d = 0; d < files.length; d++) {
+            files[d].setLength(share(d, length));
+        }
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public void force(boolean metaData) throws IOException {
+        for (FileChannel channel : channels) {
+            channel.force(metaData);
+        }
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long transferTo(long at, long count, WritableByteChannel target)
+        throws IOException {
+        long end = Math.min(at + count, size());
+        long done = 0;
+        while (at + done < end) {
+            long logical = at + done;
+            int d = device(logical);
+            int length = (int) Math.min(end - logical,
+                STRIPE_BYTES - logical % STRIPE_BYTES);
+            long bytes = channels[d].transferTo(devicePosition(logical),
+                length, target);
+            if (bytes <= 0) {
+                // a hole, it reads as zeros
+                ByteBuffer zeros = ByteBuffer.allocate(length);
+                while (zeros.hasRemaining()) {
+                    target.write(zeros);
+                }
+                bytes = length;
+            }
+            done += bytes;
+        }
+        return done;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public long transferFrom(ReadableByteChannel src, long at, long count)
+        throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(
+            (int) Math.min(count, STRIPE_BYTES));
+        long done = 0;
+        while (done < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - done));
+            if (src.read(buffer) <= 0) {
+                break;
+            }
+            buffer.flip();
+            done += write(buffer, at + done);
+        }
+        return done;
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public MappedByteBuffer map(MapMode mode, long at, long size) {
+        throw new UnsupportedOperationException(
+            "striped files cannot be mapped");
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public FileLock lock(long at, long size, boolean shared) {
+        throw new UnsupportedOperationException(
+            "striped files cannot be locked");
+    }
+
+    // ----------------------------------------------------------
+    @Override
+    public FileLock tryLock(long at, long size, boolean shared) {
+        throw new UnsupportedOperationException(
+            "striped files cannot be locked");
+    }
+
+    // ~ Protected Method .................................................
+    //
+    // ----------------------------------------------------------
+    @Override
+    protected void implCloseChannel() throws IOException {
+        for (RandomAccessFile file : files) {
+            file.close();
+        }
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Name the stripe file of one spill directory
+     * @param fileName
+     *        logical file name
+     * @param spillDirs
+     *        spill directories
+     * @param index
+     *        index of the directory
+     * @return
+     *        the stripe file
+     */
+    private static File stripeFile(String fileName, String[] spillDirs,
+        int index) {
+        return new File(spillDirs[index],
+            new File(fileName).getName() + "." + index);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Bytes of the first length logical bytes held by one device
+     * @param d
+     *        device index
+     * @param length
+     *        logical length
+     * @return
+     *        length of the stripe file of the device
+     */
+    private long share(int d, long length) {
+        long stripes = length / STRIPE_BYTES;
+        long rest = length % STRIPE_BYTES;
+        long own = stripes / channels.length
+            + (d < stripes % channels.length ? 1 : 0);
+        return own * STRIPE_BYTES + (d == stripes % channels.length ? rest : 0);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the device of a logical position
+     * @param logical
+     *        logical position
+     * @return
+     *        device index
+     */
+    private int device(long logical) {
+        return (int) (logical / STRIPE_BYTES % channels.length);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the position in its stripe file of a logical position
+     * @param logical
+     *        logical position
+     * @return
+     *        position in the stripe file
+     */
+    private long devicePosition(long logical) {
+        long stripe = logical / STRIPE_BYTES;
+        return stripe / channels.length * STRIPE_BYTES
+            + logical % STRIPE_BYTES;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Cut a request into one piece per stripe and run the pieces of
+     * every device on its own thread, or inline if a single device
+     * is involved. The buffer position is left as it was
+     * @param buffer
+     *        bytes to write or room to read into
+     * @param at
+     *        logical position of the request
+     * @param write
+     *        true to write, false to read
+     * @return
+     *        pieces in logical order: buffer offset, length, bytes
+     *        done and stripe file position, a piece stops at the
+     *        first short read
+     * @throws IOException
+     *         if a device fails
+     */
+    private long[][] split(ByteBuffer buffer, long at, boolean write)
+        throws IOException {
+        int start = buffer.position();
+        int length = buffer.remaining();
+        List<long[]> pieces = new ArrayList<>();
+        List<List<long[]>> perDevice = new ArrayList<>();
+        for (int d = 0; d < channels.length; d++) {
+            perDevice.add(new ArrayList<>());
+        }
+        int devices = 0;
+        for (int offset = 0; offset < length;) {
+            long logical = at + offset;
+            int size = (int) Math.min(length - offset,
+                STRIPE_BYTES - logical % STRIPE_BYTES);
+            int d = device(logical);
+            if (perDevice.get(d).isEmpty()) {
+                devices++;
+            }
+            long[] piece = {start + offset, size, 0, devicePosition(logical)};
+            pieces.add(piece);
+            perDevice.get(d).add(piece);
+            offset += size;
+        }
+        if (devices == 1) {
+            for (int d = 0; d < channels.length; d++) {
+                if (!perDevice.get(d).isEmpty()) {
+                    runPieces(channels[d], buffer, perDevice.get(d), write);
+                }
+            }
+        }
+        else {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int d = 0; d < channels.length; d++) {
+                if (!perDevice.get(d).isEmpty()) {
+                    FileChannel channel = channels[d];
+                    List<long[]> own = perDevice.get(d);
+                    tasks.add(DEVICES.submit(() -> {
+                        runPieces(channel, buffer, own, write);
+                        return null;
+                    }));
+                }
+            }
+            try {
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        return pieces.toArray(new long[0][]);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Read or write the pieces of one device
+     * @param channel
+     *        stripe file of the device
+     * @param buffer
+     *        buffer of the request, only duplicates are moved
+     * @param pieces
+     *        pieces of the device
+     * @param write
+     *        true to write, false to read
+     * @throws IOException
+     *         if the device fails
+     */
+    private static void runPieces(FileChannel channel, ByteBuffer buffer,
+        List<long[]> pieces, boolean write) throws IOException {
+        for (long[] piece : pieces) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit((int) (piece[0] + piece[1]));
+            slice.position((int) piece[0]);
+            while (slice.hasRemaining()) {
+                int bytes = write
+                    ? channel.write(slice, piece[3] + piece[2])
+                    : channel.read(slice, piece[3] + piece[2]);
+                if (bytes < 0) {
+                    break;
+                }
+                piece[2] += bytes;
+            }
+        }
+    }
+}
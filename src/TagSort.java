@@ -0,0 +1,283 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The class to sort a file of records of any layout (see
+ * RecordLayout), such as wide records with a payload, without moving
+ * the records through the runs. A first pass writes a 16-byte tag
+ * per record, the record number as its id and the normalized record
+ * key as its key, which the 16-byte sort engine sorts like any other
+ * record file.
+ * The gather pass then reads the sorted tags a batch at a time: the
+ * records of a batch are read in file order into their slots of the
+ * batch buffer, which is written out with one sequential write, and
+ * the output replaces the input.
+ *
+ * @author Guann-Luen Chen
+ * @version 2024.11.04
+ */
+public class TagSort {
+    // ~ Fields ..........................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * the tag file name is the input file name with this suffix
+     */
+    public static final String TAG_SUFFIX = ".tags";
+    // records of a gather batch at most this many bytes apart are read
+    // with one call, the gap is mostly on pages the device reads anyway
+    private static final int GAP_BYTES = 4096;
+
+    private String inputFileName;
+    private String tagFileName;
+    private SortOptions options;
+    private MemoryBudget budget;
+    private RecordLayout layout;
+    private int width;
+    private SortStats stats = new SortStats();
+
+    // ~ Constructor ......................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Set up the tag sort of a file
+     * @param inputFileName
+     *        file of wide records, replaced by the sorted records
+     * @param options
+     *        sort options, the record layout included
+     */
+    public TagSort(String inputFileName, SortOptions options) {
+        this.inputFileName = inputFileName;
+        this.tagFileName = inputFileName + TAG_SUFFIX;
+        this.options = options;
+        this.budget = new MemoryBudget(options.getMemory());
+        this.layout = options.getLayout();
+        this.width = layout.getWidth();
+    }
+
+    // ~ Public Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Extract and sort the tags, then gather the records in tag order
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    public void sort() throws Exception {
+        String runFileName = tagFileName + ".runs";
+        String outputFileName = inputFileName + ".sorted";
+        try {
+            stats.startRunGeneration();
+            extractTags();
+            ReplacementSelection rs = new ReplacementSelection(
+                tagFileName, runFileName, tagOptions());
+            try {
+                rs.sort();
+                rs.merge();
+            }
+            finally {
+                rs.close();
+            }
+            stats.endPhase();
+            stats.add(rs.getStats());
+
+            stats.startMerge();
+            gather(outputFileName);
+            stats.endPhase();
+            Files.move(new File(outputFileName).toPath(),
+                new File(inputFileName).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            new File(tagFileName).delete();
+            new File(runFileName).delete();
+            new File(outputFileName).delete();
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Get the counters and timers of this sort: the run generation
+     * column covers the tag extraction and the sort of the tags, the
+     * merge column the gather pass
+     * @return
+     *         statistics of the sort
+     */
+    public SortStats getStats() {
+        return stats;
+    }
+
+    // ~ Private Method ....................................................
+    //
+    // ----------------------------------------------------------
+    /**
+     * Read the input sequentially in large blocks and write the tag
+     * of every whole record
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void extractTags() throws Exception {
+        ByteFileProcessor input = new ByteFileProcessor(inputFileName,
+            "r", Record.BYTES);
+        ByteFileProcessor tags = new ByteFileProcessor(tagFileName, "rw",
+            budget.getIOBufferSize());
+        input.setStats(stats);
+        tags.setStats(stats);
+        try {
+            tags.setLength(0);
+            int ioSize = budget.getIOBufferSize();
+            ByteBuffer block = ByteBuffer.allocate(
+                Math.max(width, ioSize - ioSize % width));
+            long records = input.getEndPos() / width;
+            long index = 0;
+            while (index < records) {
+                block.clear();
+                block.limit((int) Math.min(block.capacity(),
+                    (records - index) * width));
+                input.readBlock(block, index * width);
+                for (int offset = 0; offset < block.limit();
+                    offset += width) {
+                    tags.writeRecord(index++, layout.key(block, offset));
+                }
+            }
+            tags.flushWriteBuffer();
+        }
+        finally {
+            tags.closeFile();
+            input.closeFile();
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Read the sorted tags a batch at a time and write the records
+     * they point to. The records of a batch are read in ascending
+     * file order, each into the output slot of its tag; records
+     * close enough to each other are read with one block read into a
+     * staging buffer and copied to their slots from there
+     * @param outputFileName
+     *        file receiving the sorted records
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private void gather(String outputFileName) throws Exception {
+        int ioSize = budget.getIOBufferSize();
+        ByteBuffer staging = ByteBuffer.allocate(
+            Math.max(width, ioSize - ioSize % width));
+        // the tag buffer and the staging buffer come off the budget,
+        // every record of a batch then takes its slot and its place
+        // in the sorter ordering the batch by record number
+        long room = budget.getTotalBytes() - ioSize - staging.capacity();
+        int capacity = (int) Math.max(1, Math.min(
+            Integer.MAX_VALUE / width,
+            room / (width + RadixSorter.BYTES_PER_RECORD)));
+        ByteBuffer batch = ByteBuffer.allocate(capacity * width);
+        RadixSorter sorter = new RadixSorter(capacity);
+        ByteFileProcessor tags = new ByteFileProcessor(tagFileName, "r",
+            budget.getIOBufferSize());
+        ByteFileProcessor input = new ByteFileProcessor(inputFileName,
+            "r", Record.BYTES);
+        tags.setStats(stats);
+        input.setStats(stats);
+        try (FileChannel output = FileChannel.open(
+            new File(outputFileName).toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            int count = 0;
+            do {
+                count = 0;
+                while (count < capacity && tags.readNext()) {
+                    // the slot is the id, the record number the key
+                    sorter.set(count, count, tags.getRecordID());
+                    count++;
+                }
+                sorter.sort(count);
+                for (int i = 0; i < count;) {
+                    i = readSpan(input, sorter, i, count, staging, batch);
+                }
+                batch.position(0);
+                batch.limit(count * width);
+                while (batch.hasRemaining()) {
+                    stats.write(output.write(batch));
+                }
+                batch.clear();
+            } while (count == capacity);
+        }
+        finally {
+            input.closeFile();
+            tags.closeFile();
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Read the records of a batch from one sorted position on with a
+     * single block read: the span grows while the next record is at
+     * most GAP_BYTES past the previous one and the span still fits
+     * the staging buffer, so adjacent and nearby records share one
+     * read
+     * @param input
+     *        processor of the input file
+     * @param sorter
+     *        tags of the batch sorted by record number, the key is the
+     *        record number and the id the slot
+     * @param first
+     *        sorted position of the first record of the span
+     * @param count
+     *        number of records in the batch
+     * @param staging
+     *        buffer the span is read into
+     * @param batch
+     *        output slots of the batch
+     * @return
+     *        sorted position after the span
+     * @throws Exception
+     *         Exception (mostly IOExeption)
+     */
+    private int readSpan(ByteFileProcessor input, RadixSorter sorter,
+        int first, int count, ByteBuffer staging, ByteBuffer batch)
+        throws Exception {
+        long start = sorter.key(first);
+        long spanRecords = staging.capacity() / width;
+        long gapRecords = Math.max(1, GAP_BYTES / width);
+        int end = first + 1;
+        while (end < count && sorter.key(end) - start < spanRecords
+            && sorter.key(end) - sorter.key(end - 1) <= gapRecords) {
+            end++;
+        }
+        staging.clear();
+        staging.limit((int) (sorter.key(end - 1) - start + 1) * width);
+        input.readBlock(staging, start * width);
+        for (int i = first; i < end; i++) {
+            System.arraycopy(staging.array(),
+                (int) (sorter.key(i) - start) * width, batch.array(),
+                (int) sorter.id(i) * width, width);
+        }
+        return end;
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Options of the sort of the tags: those of this sort, without
+     * the ones that describe its output
+     * @return
+     *        options for the tag file
+     */
+    private SortOptions tagOptions() {
+        SortOptions tagOptions = new SortOptions();
+        tagOptions.setMemory(options.getMemory());
+        tagOptions.setRunEngine(options.getRunEngine());
+        tagOptions.setMergeEngine(options.getMergeEngine());
+        tagOptions.setThreads(options.getThreads());
+        tagOptions.setAsyncDepth(options.getAsyncDepth());
+        tagOptions.setIOBackend(options.getIOBackend());
+        tagOptions.setSpillDirs(options.getSpillDirs());
+        tagOptions.setLimit(options.getLimit());
+        tagOptions.setExternal(options.isExternal());
+        return tagOptions;
+    }
+}